@@ -0,0 +1,98 @@
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+/**
+ * Reads from a socket while enforcing a deadline for the first byte and a
+ * deadline for the entire stream. Before every read the socket timeout is set
+ * to the time left until the nearest deadline, so the deadlines are enforced
+ * by the blocking read itself without a separate timer thread.
+ */
+public class DeadlineInputStream extends FilterInputStream {
+
+	/** Socket whose timeout is adjusted before every read. */
+	private final Socket socket;
+
+	/** When the first byte must have arrived (in nanoseconds), or 0 for none. */
+	private final long firstByteDeadline;
+
+	/** When the entire stream must have been read (in nanoseconds), or 0 for none. */
+	private final long totalDeadline;
+
+	/** Whether any byte has been read yet. */
+	private boolean started;
+
+	/**
+	 * Initializes a stream reading from the socket.
+	 *
+	 * @param socket
+	 *            socket to read from
+	 * @param firstByteDeadline
+	 *            {@link System#nanoTime()} by which the first byte must arrive,
+	 *            or 0 for no deadline
+	 * @param totalDeadline
+	 *            {@link System#nanoTime()} by which the stream must be read,
+	 *            or 0 for no deadline
+	 * @throws IOException
+	 *             if unable to get the socket input stream
+	 */
+	public DeadlineInputStream(Socket socket, long firstByteDeadline, long totalDeadline) throws IOException {
+		super(socket.getInputStream());
+		this.socket = socket;
+		this.firstByteDeadline = firstByteDeadline;
+		this.totalDeadline = totalDeadline;
+		this.started = false;
+	}
+
+	@Override
+	public int read() throws IOException {
+		updateTimeout();
+		int read = super.read();
+		started = started || read >= 0;
+		return read;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		updateTimeout();
+		int read = super.read(buffer, offset, length);
+		started = started || read > 0;
+		return read;
+	}
+
+	/**
+	 * Sets the socket timeout to the time left until the nearest deadline.
+	 *
+	 * @throws SocketTimeoutException
+	 *             if a deadline has already passed
+	 * @throws IOException
+	 *             if unable to set the socket timeout
+	 */
+	private void updateTimeout() throws IOException {
+		long now = System.nanoTime();
+		long remaining = Long.MAX_VALUE;
+
+		if (!started && firstByteDeadline != 0) {
+			remaining = Math.min(remaining, firstByteDeadline - now);
+		}
+
+		if (totalDeadline != 0) {
+			remaining = Math.min(remaining, totalDeadline - now);
+		}
+
+		if (remaining == Long.MAX_VALUE) {
+			socket.setSoTimeout(0);
+			return;
+		}
+
+		// round up so a timeout of less than a millisecond does not mean forever
+		long millis = (remaining + 999999) / 1000000;
+
+		if (millis <= 0) {
+			throw new SocketTimeoutException(started ? "Read deadline passed" : "First byte deadline passed");
+		}
+
+		socket.setSoTimeout((int) Math.min(millis, Integer.MAX_VALUE));
+	}
+}
@@ -0,0 +1,201 @@
+/**
+ * Time and size limits for fetching a page with
+ * {@link LinkParser#fetchHTML(java.net.URL, FetchLimits)}. Timeouts are in
+ * milliseconds, where 0 means no limit. By default there are no limits except
+ * on the size of the status line and headers, which may not exceed
+ * {@value #DEFAULT_MAX_HEADER_BYTES} bytes.
+ *
+ * <p>
+ * When the body is larger than the maximum size, the page is either dropped
+ * or truncated to a prefix of the maximum size. The prefix of a truncated page
+ * can still be passed to {@link LinkParser#listLinks(java.net.URL, String)},
+ * which ignores any anchor tag cut off at the end.
+ * </p>
+ */
+public class FetchLimits {
+
+	/** Default maximum size of the status line and headers, in bytes. */
+	public static final int DEFAULT_MAX_HEADER_BYTES = 64 * 1024;
+
+	/** Maximum time to connect to the host. */
+	private int connectTimeout;
+
+	/** Maximum time from sending the request to the first byte of the response. */
+	private int firstByteTimeout;
+
+	/** Maximum time from connecting to reading the entire response. */
+	private int totalTimeout;
+
+	/** Maximum number of body bytes to read, or -1 for no limit. */
+	private int maxBytes;
+
+	/** Whether to keep a prefix of a body that is too large. */
+	private boolean truncate;
+
+	/** Maximum number of status line and header bytes, or -1 for no limit. */
+	private int maxHeaderBytes;
+
+	/**
+	 * Initializes limits that only limit the size of the headers.
+	 */
+	public FetchLimits() {
+		this.connectTimeout = 0;
+		this.firstByteTimeout = 0;
+		this.totalTimeout = 0;
+		this.maxBytes = -1;
+		this.truncate = false;
+		this.maxHeaderBytes = DEFAULT_MAX_HEADER_BYTES;
+	}
+
+	/**
+	 * Sets the maximum time to connect to the host.
+	 *
+	 * @param millis
+	 *            timeout in milliseconds, or 0 for no limit
+	 * @return these limits
+	 */
+	public FetchLimits connectTimeout(int millis) {
+		this.connectTimeout = checkTimeout(millis);
+		return this;
+	}
+
+	/**
+	 * Sets the maximum time from sending the request until the first byte of
+	 * the response arrives.
+	 *
+	 * @param millis
+	 *            timeout in milliseconds, or 0 for no limit
+	 * @return these limits
+	 */
+	public FetchLimits firstByteTimeout(int millis) {
+		this.firstByteTimeout = checkTimeout(millis);
+		return this;
+	}
+
+	/**
+	 * Sets the maximum time from looking up the host until the entire
+	 * response has been read.
+	 *
+	 * @param millis
+	 *            timeout in milliseconds, or 0 for no limit
+	 * @return these limits
+	 */
+	public FetchLimits totalTimeout(int millis) {
+		this.totalTimeout = checkTimeout(millis);
+		return this;
+	}
+
+	/**
+	 * Sets the maximum size of the response body.
+	 *
+	 * @param bytes
+	 *            maximum number of bytes, or -1 for no limit
+	 * @param truncate
+	 *            whether to keep a prefix of a larger body instead of dropping
+	 *            the page
+	 * @return these limits
+	 */
+	public FetchLimits maxBytes(int bytes, boolean truncate) {
+		if (bytes < -1) {
+			throw new IllegalArgumentException("Invalid maximum size: " + bytes);
+		}
+
+		this.maxBytes = bytes;
+		this.truncate = truncate;
+		return this;
+	}
+
+	/**
+	 * Sets the maximum size of the status line and headers of the response.
+	 * A response with larger headers is dropped.
+	 *
+	 * @param bytes
+	 *            maximum number of bytes, or -1 for no limit
+	 * @return these limits
+	 */
+	public FetchLimits maxHeaderBytes(int bytes) {
+		if (bytes < -1) {
+			throw new IllegalArgumentException("Invalid maximum header size: " + bytes);
+		}
+
+		this.maxHeaderBytes = bytes;
+		return this;
+	}
+
+	/**
+	 * Returns the maximum time to connect to the host.
+	 *
+	 * @return timeout in milliseconds, or 0 for no limit
+	 */
+	public int getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	/**
+	 * Returns the maximum time until the first byte of the response.
+	 *
+	 * @return timeout in milliseconds, or 0 for no limit
+	 */
+	public int getFirstByteTimeout() {
+		return firstByteTimeout;
+	}
+
+	/**
+	 * Returns the maximum time to fetch the entire response.
+	 *
+	 * @return timeout in milliseconds, or 0 for no limit
+	 */
+	public int getTotalTimeout() {
+		return totalTimeout;
+	}
+
+	/**
+	 * Returns the maximum size of the response body.
+	 *
+	 * @return maximum number of bytes, or -1 for no limit
+	 */
+	public int getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Returns whether a body that is too large is truncated instead of
+	 * dropped.
+	 *
+	 * @return true if a prefix of a large body is kept
+	 */
+	public boolean isTruncate() {
+		return truncate;
+	}
+
+	/**
+	 * Returns the maximum size of the status line and headers.
+	 *
+	 * @return maximum number of bytes, or -1 for no limit
+	 */
+	public int getMaxHeaderBytes() {
+		return maxHeaderBytes;
+	}
+
+	/**
+	 * Makes sure a timeout is not negative.
+	 *
+	 * @param millis
+	 *            timeout to check
+	 * @return the timeout
+	 */
+	private static int checkTimeout(int millis) {
+		if (millis < 0) {
+			throw new IllegalArgumentException("Invalid timeout: " + millis);
+		}
+
+		return millis;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("connect=%dms, first byte=%dms, total=%dms, max=%d bytes (%s), max headers=%d bytes",
+				connectTimeout, firstByteTimeout, totalTimeout, maxBytes, truncate ? "truncate" : "drop",
+				maxHeaderBytes);
+	}
+}
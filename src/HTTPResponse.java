@@ -0,0 +1,153 @@
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The status, headers and body of a HTTP response as read from a socket by
+ * {@link LinkParser}.
+ */
+public class HTTPResponse {
+
+	/** Status code of the response, such as 200. */
+	private final int status;
+
+	/** Headers of the response, with lowercase names. */
+	private final Map<String, String> headers;
+
+	/** Raw bytes of the response body. */
+	private final byte[] body;
+
+	/** Whether the body was cut off at the maximum size. */
+	private final boolean truncated;
+
+	/**
+	 * Initializes a response.
+	 *
+	 * @param status
+	 *            status code of the response
+	 * @param headers
+	 *            headers of the response, with lowercase names
+	 * @param body
+	 *            raw bytes of the response body
+	 */
+	public HTTPResponse(int status, Map<String, String> headers, byte[] body) {
+		this(status, headers, body, false);
+	}
+
+	/**
+	 * Initializes a response that may only have a prefix of the body.
+	 *
+	 * @param status
+	 *            status code of the response
+	 * @param headers
+	 *            headers of the response, with lowercase names
+	 * @param body
+	 *            raw bytes of the response body (or a prefix of it)
+	 * @param truncated
+	 *            whether the body was cut off at the maximum size
+	 */
+	public HTTPResponse(int status, Map<String, String> headers, byte[] body, boolean truncated) {
+		this.status = status;
+		this.headers = Collections.unmodifiableMap(headers);
+		this.body = body;
+		this.truncated = truncated;
+	}
+
+	/**
+	 * Returns the status code of the response.
+	 *
+	 * @return status code
+	 */
+	public int getStatus() {
+		return status;
+	}
+
+	/**
+	 * Returns the value of a header, ignoring the case of the name.
+	 *
+	 * @param name
+	 *            name of the header
+	 * @return value of the header, or null if it was not sent
+	 */
+	public String getHeader(String name) {
+		return headers.get(name.toLowerCase(Locale.ROOT));
+	}
+
+	/**
+	 * Returns all of the headers of the response.
+	 *
+	 * @return unmodifiable map of lowercase header names to values
+	 */
+	public Map<String, String> getHeaders() {
+		return headers;
+	}
+
+	/**
+	 * Returns the raw bytes of the response body.
+	 *
+	 * @return response body
+	 */
+	public byte[] getBody() {
+		return body;
+	}
+
+	/**
+	 * Returns whether only a prefix of the body was read because the body was
+	 * larger than the maximum size.
+	 *
+	 * @return true if the body was truncated
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	/**
+	 * Tests whether the response was successful and contains HTML.
+	 *
+	 * @return true if the status is 200 and the content type is text/html
+	 */
+	public boolean isHTML() {
+		String type = getHeader("Content-Type");
+		return status == 200 && type != null && type.trim().toLowerCase(Locale.ROOT).startsWith("text/html");
+	}
+
+	/**
+	 * Returns the response body decoded using the charset from the content
+	 * type, or UTF-8 if no (supported) charset was given.
+	 *
+	 * @return response body as text
+	 */
+	public String getText() {
+		return new String(body, getCharset());
+	}
+
+	/**
+	 * Returns the charset from the content type.
+	 *
+	 * @return charset of the body, or UTF-8 if no (supported) charset was given
+	 */
+	private Charset getCharset() {
+		String type = getHeader("Content-Type");
+
+		if (type != null) {
+			for (String parameter : type.split(";")) {
+				String[] parts = parameter.trim().split("=", 2);
+
+				if (parts.length == 2 && parts[0].trim().equalsIgnoreCase("charset")) {
+					try {
+						return Charset.forName(parts[1].trim().replace("\"", ""));
+					}
+					catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+						break;
+					}
+				}
+			}
+		}
+
+		return StandardCharsets.UTF_8;
+	}
+}
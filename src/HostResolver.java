@@ -0,0 +1,26 @@
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Resolves a host name into its IP addresses. Implementations other than
+ * {@link #SYSTEM} are mostly useful as stubs in tests.
+ *
+ * @see ResolverCache
+ */
+@FunctionalInterface
+public interface HostResolver {
+
+	/** Resolves hosts using the name service configured for the JVM. */
+	public static final HostResolver SYSTEM = InetAddress::getAllByName;
+
+	/**
+	 * Returns the IP addresses of the host.
+	 *
+	 * @param host
+	 *            host name to resolve
+	 * @return one or more addresses of the host
+	 * @throws UnknownHostException
+	 *             if the host could not be resolved
+	 */
+	public InetAddress[] resolve(String host) throws UnknownHostException;
+}
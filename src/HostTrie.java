@@ -0,0 +1,182 @@
+import java.util.Arrays;
+
+/**
+ * A set of domain names stored as a character trie over the reversed host
+ * name, so that a domain also matches all of its subdomains. For example,
+ * after adding {@code usfca.edu} the trie matches {@code usfca.edu} and
+ * {@code www.cs.usfca.edu}, but not {@code notusfca.edu}. Matching is case
+ * insensitive and works directly on a region of a string, so checking a host
+ * does not allocate any objects.
+ */
+public class HostTrie {
+
+	/** The root of the trie, which matches the end of a host name. */
+	private final Node root;
+
+	/** Number of domains stored in the trie. */
+	private int size;
+
+	/**
+	 * Initializes an empty trie.
+	 */
+	public HostTrie() {
+		this.root = new Node();
+		this.size = 0;
+	}
+
+	/**
+	 * Adds a domain to the trie. A leading {@code *.} or {@code .} is ignored,
+	 * since every domain already matches its subdomains.
+	 *
+	 * @param domain
+	 *            domain to add
+	 */
+	public void add(String domain) {
+		int start = 0;
+
+		if (domain.startsWith("*.")) {
+			start = 2;
+		}
+		else if (domain.startsWith(".")) {
+			start = 1;
+		}
+
+		if (start >= domain.length()) {
+			throw new IllegalArgumentException("Empty domain: " + domain);
+		}
+
+		Node node = root;
+
+		for (int i = domain.length() - 1; i >= start; i--) {
+			node = node.child(Character.toLowerCase(domain.charAt(i)), true);
+		}
+
+		if (!node.terminal) {
+			node.terminal = true;
+			size++;
+		}
+	}
+
+	/**
+	 * Returns the number of domains in the trie.
+	 *
+	 * @return number of domains
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns whether the trie has no domains.
+	 *
+	 * @return true if no domains have been added
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Tests whether the entire host matches a domain in the trie.
+	 *
+	 * @param host
+	 *            host to test
+	 * @return true if the host or one of its parent domains is in the trie
+	 */
+	public boolean matches(String host) {
+		return matches(host, 0, host.length());
+	}
+
+	/**
+	 * Tests whether the host found between {@code start} (inclusive) and
+	 * {@code end} (exclusive) matches a domain in the trie. A domain matches
+	 * if it equals the host or the host ends with a dot followed by the
+	 * domain.
+	 *
+	 * @param text
+	 *            text containing the host
+	 * @param start
+	 *            index of the first character of the host
+	 * @param end
+	 *            index after the last character of the host
+	 * @return true if the host or one of its parent domains is in the trie
+	 */
+	public boolean matches(CharSequence text, int start, int end) {
+		// a fully qualified host may end in a dot
+		if (end > start && text.charAt(end - 1) == '.') {
+			end--;
+		}
+
+		Node node = root;
+
+		for (int i = end - 1; i >= start; i--) {
+			node = node.child(Character.toLowerCase(text.charAt(i)), false);
+
+			if (node == null) {
+				return false;
+			}
+
+			if (node.terminal && (i == start || text.charAt(i - 1) == '.')) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * A trie node that keeps its children in sorted parallel arrays, which
+	 * keeps lookups allocation free and the trie compact.
+	 */
+	private static class Node {
+
+		/** Sorted labels of the outgoing edges. */
+		private char[] labels = new char[0];
+
+		/** Children in the same order as the labels. */
+		private Node[] children = new Node[0];
+
+		/** Whether a domain ends at this node. */
+		private boolean terminal = false;
+
+		/**
+		 * Returns the child for the given label.
+		 *
+		 * @param label
+		 *            label of the edge to follow
+		 * @param create
+		 *            whether to create the child if it does not exist
+		 * @return the child node, or null if it does not exist and was not
+		 *         created
+		 */
+		private Node child(char label, boolean create) {
+			int index = Arrays.binarySearch(labels, label);
+
+			if (index >= 0) {
+				return children[index];
+			}
+
+			if (!create) {
+				return null;
+			}
+
+			int insert = -index - 1;
+			Node node = new Node();
+
+			char[] newLabels = new char[labels.length + 1];
+			Node[] newChildren = new Node[children.length + 1];
+
+			System.arraycopy(labels, 0, newLabels, 0, insert);
+			System.arraycopy(children, 0, newChildren, 0, insert);
+
+			newLabels[insert] = label;
+			newChildren[insert] = node;
+
+			System.arraycopy(labels, insert, newLabels, insert + 1, labels.length - insert);
+			System.arraycopy(children, insert, newChildren, insert + 1, children.length - insert);
+
+			labels = newLabels;
+			children = newChildren;
+			return node;
+		}
+	}
+}
@@ -0,0 +1,622 @@
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+
+/**
+ * A {@link LinkFilter} that restricts links by scheme, host and path before
+ * they are resolved. Only HTTP(S) links are accepted. Hosts may be restricted
+ * with allow and deny lists (stored in a {@link HostTrie}, so a domain also
+ * covers its subdomains), and paths with allow and deny prefixes. Relative
+ * hrefs are checked against the host and directory of the base url.
+ *
+ * <p>
+ * All checks work on the raw href in place, so rejecting a link does not
+ * allocate any objects. Paths are compared as written in the HTML (without
+ * decoding or encoding). The rare hrefs with {@code .} or {@code ..} segments
+ * are resolved and have their dot segments removed before the path rules are
+ * checked, so they cannot be used to step outside an allowed prefix or into a
+ * denied one.
+ * </p>
+ *
+ * <p>
+ * The filter should be fully configured before it is used. Once configured,
+ * it is safe to share between threads.
+ * </p>
+ */
+public class HrefFilter implements LinkFilter {
+
+	/** Characters that end the authority of an href. */
+	private static final char[] AUTHORITY_END = { '/', '?', '#' };
+
+	/** Characters that end the path of an href. */
+	static final char[] PATH_END = { '?', '#' };
+
+	/** Hosts that are allowed. If empty, all hosts not denied are allowed. */
+	private final HostTrie allowedHosts;
+
+	/** Hosts that are denied, even if also allowed. */
+	private final HostTrie deniedHosts;
+
+	/** Path prefixes that are allowed. If empty, all paths are allowed. */
+	private final ArrayList<String> allowedPaths;
+
+	/** Path prefixes that are denied, even if also allowed. */
+	private final ArrayList<String> deniedPaths;
+
+	/**
+	 * Initializes a filter that accepts all HTTP(S) links.
+	 */
+	public HrefFilter() {
+		this.allowedHosts = new HostTrie();
+		this.deniedHosts = new HostTrie();
+		this.allowedPaths = new ArrayList<>();
+		this.deniedPaths = new ArrayList<>();
+	}
+
+	/**
+	 * Adds a domain (and its subdomains) to the allowed hosts. Once any host is
+	 * allowed, links to all other hosts are rejected.
+	 *
+	 * @param domain
+	 *            domain to allow
+	 * @return this filter
+	 */
+	public HrefFilter allowHost(String domain) {
+		allowedHosts.add(domain);
+		return this;
+	}
+
+	/**
+	 * Adds a domain (and its subdomains) to the denied hosts.
+	 *
+	 * @param domain
+	 *            domain to deny
+	 * @return this filter
+	 */
+	public HrefFilter denyHost(String domain) {
+		deniedHosts.add(domain);
+		return this;
+	}
+
+	/**
+	 * Adds a path prefix to the allowed paths. Once any path prefix is allowed,
+	 * links to all other paths are rejected.
+	 *
+	 * @param prefix
+	 *            path prefix to allow, which must start with a slash
+	 * @return this filter
+	 */
+	public HrefFilter allowPath(String prefix) {
+		allowedPaths.add(checkPrefix(prefix));
+		return this;
+	}
+
+	/**
+	 * Adds a path prefix to the denied paths.
+	 *
+	 * @param prefix
+	 *            path prefix to deny, which must start with a slash
+	 * @return this filter
+	 */
+	public HrefFilter denyPath(String prefix) {
+		deniedPaths.add(checkPrefix(prefix));
+		return this;
+	}
+
+	@Override
+	public boolean accept(URL base, String html, int start, int end) {
+		return accept(base, (CharSequence) html, start, end);
+	}
+
+	/**
+	 * Tests the href the same way as {@link #accept(URL, String, int, int)},
+	 * reading the html only through {@link CharSequence#charAt(int)} and
+	 * only between {@code start} and {@code end}.
+	 *
+	 * @param base
+	 *            base url the href will be resolved against
+	 * @param html
+	 *            raw html containing the href value
+	 * @param start
+	 *            index of the first character of the href value
+	 * @param end
+	 *            index after the last character of the href value
+	 * @return true if the link passes the filter
+	 */
+	boolean accept(URL base, CharSequence html, int start, int end) {
+		if (!isHttp(base, html, start, end)) {
+			return false;
+		}
+
+		if (!allowedHosts.isEmpty() || !deniedHosts.isEmpty()) {
+			int authority = authorityStart(html, start, end);
+			boolean allowed;
+			boolean denied;
+
+			if (authority < 0) {
+				String host = base.getHost();
+				allowed = allowedHosts.isEmpty() || allowedHosts.matches(host);
+				denied = deniedHosts.matches(host);
+			}
+			else {
+				int hostStart = hostStart(html, authority, end);
+				int hostEnd = hostEnd(html, hostStart, end);
+				allowed = allowedHosts.isEmpty() || allowedHosts.matches(html, hostStart, hostEnd);
+				denied = deniedHosts.matches(html, hostStart, hostEnd);
+			}
+
+			if (!allowed || denied) {
+				return false;
+			}
+		}
+
+		if (!allowedPaths.isEmpty() || !deniedPaths.isEmpty()) {
+			int pathStart = pathStart(html, start, end);
+			int pathEnd = indexOf(html, pathStart, end, PATH_END);
+
+			if (hasDotSegment(html, pathStart, pathEnd)) {
+				// rare, so resolve the href and check the normalized path
+				String path = resolvePath(base, html, start, end);
+				return path != null && isAllowedPath("", 0, path, 0, path.length());
+			}
+
+			String directory = directory(base, html, start, end, pathStart, pathEnd);
+			int directoryEnd = directoryEnd(directory, pathStart, pathEnd);
+			return isAllowedPath(directory, directoryEnd, html, pathStart, pathEnd);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Tests whether the path formed by the directory prefix followed by the
+	 * path passes the path rules.
+	 *
+	 * @param directory
+	 *            string containing the directory prefix
+	 * @param directoryEnd
+	 *            number of characters of the directory to use
+	 * @param html
+	 *            text containing the path
+	 * @param pathStart
+	 *            index of the first character of the path
+	 * @param pathEnd
+	 *            index after the last character of the path
+	 * @return true if no denied prefix and some allowed prefix (if any) match
+	 */
+	private boolean isAllowedPath(String directory, int directoryEnd, CharSequence html, int pathStart, int pathEnd) {
+		for (String prefix : deniedPaths) {
+			if (startsWith(directory, directoryEnd, html, pathStart, pathEnd, prefix)) {
+				return false;
+			}
+		}
+
+		if (allowedPaths.isEmpty()) {
+			return true;
+		}
+
+		for (String prefix : allowedPaths) {
+			if (startsWith(directory, directoryEnd, html, pathStart, pathEnd, prefix)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Makes sure a path prefix is absolute.
+	 *
+	 * @param prefix
+	 *            path prefix to check
+	 * @return the path prefix
+	 */
+	private static String checkPrefix(String prefix) {
+		if (!prefix.startsWith("/")) {
+			throw new IllegalArgumentException("Path prefix must start with a slash: " + prefix);
+		}
+
+		return prefix;
+	}
+
+	/**
+	 * Tests whether the href will resolve to a HTTP(S) link. Hrefs without an
+	 * explicit scheme use the scheme of the base url.
+	 *
+	 * @param base
+	 *            base url the href will be resolved against
+	 * @param html
+	 *            raw html containing the href value
+	 * @param start
+	 *            index of the first character of the href value
+	 * @param end
+	 *            index after the last character of the href value
+	 * @return true if the href will resolve to a HTTP(S) link
+	 */
+	static boolean isHttp(URL base, CharSequence html, int start, int end) {
+		int colon = schemeEnd(html, start, end);
+
+		if (colon < 0) {
+			return isHttp(base.getProtocol(), 0, base.getProtocol().length());
+		}
+
+		return isHttp(html, start, colon);
+	}
+
+	/**
+	 * Tests whether the scheme found between {@code start} (inclusive) and
+	 * {@code end} (exclusive) is http or https, ignoring case.
+	 *
+	 * @param text
+	 *            text containing the scheme
+	 * @param start
+	 *            index of the first character of the scheme
+	 * @param end
+	 *            index after the last character of the scheme
+	 * @return true if the scheme is http or https
+	 */
+	private static boolean isHttp(CharSequence text, int start, int end) {
+		int length = end - start;
+
+		if (length != 4 && length != 5) {
+			return false;
+		}
+
+		for (int i = 0; i < length; i++) {
+			if (Character.toLowerCase(text.charAt(start + i)) != "https".charAt(i)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Finds the colon that ends the scheme of the href, if it has one.
+	 *
+	 * @param html
+	 *            raw html containing the href value
+	 * @param start
+	 *            index of the first character of the href value
+	 * @param end
+	 *            index after the last character of the href value
+	 * @return index of the colon after the scheme, or -1 if there is no scheme
+	 */
+	static int schemeEnd(CharSequence html, int start, int end) {
+		for (int i = start; i < end; i++) {
+			char c = html.charAt(i);
+
+			if (c == ':') {
+				return i > start ? i : -1;
+			}
+
+			boolean letter = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+			boolean other = (c >= '0' && c <= '9') || c == '+' || c == '-' || c == '.';
+
+			if (!letter && (i == start || !other)) {
+				return -1;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Finds the start of the authority (userinfo, host and port) of the href,
+	 * if it has one.
+	 *
+	 * @param html
+	 *            raw html containing the href value
+	 * @param start
+	 *            index of the first character of the href value
+	 * @param end
+	 *            index after the last character of the href value
+	 * @return index after the {@code //} that starts the authority, or -1 if
+	 *         there is no authority
+	 */
+	static int authorityStart(CharSequence html, int start, int end) {
+		int colon = schemeEnd(html, start, end);
+		int index = colon < 0 ? start : colon + 1;
+
+		if (index + 1 < end && html.charAt(index) == '/' && html.charAt(index + 1) == '/') {
+			return index + 2;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Finds the start of the host within the authority, skipping any userinfo.
+	 *
+	 * @param html
+	 *            raw html containing the href value
+	 * @param authority
+	 *            index of the first character of the authority
+	 * @param end
+	 *            index after the last character of the href value
+	 * @return index of the first character of the host
+	 */
+	static int hostStart(CharSequence html, int authority, int end) {
+		int authorityEnd = indexOf(html, authority, end, AUTHORITY_END);
+		int hostStart = authority;
+
+		for (int i = authority; i < authorityEnd; i++) {
+			if (html.charAt(i) == '@') {
+				hostStart = i + 1;
+			}
+		}
+
+		return hostStart;
+	}
+
+	/**
+	 * Finds the end of the host, before any port.
+	 *
+	 * @param html
+	 *            raw html containing the href value
+	 * @param hostStart
+	 *            index of the first character of the host
+	 * @param end
+	 *            index after the last character of the href value
+	 * @return index after the last character of the host
+	 */
+	static int hostEnd(CharSequence html, int hostStart, int end) {
+		int authorityEnd = indexOf(html, hostStart, end, AUTHORITY_END);
+
+		if (hostStart < authorityEnd && html.charAt(hostStart) == '[') {
+			int bracket = indexOf(html, hostStart, authorityEnd, ']');
+			return bracket < authorityEnd ? bracket + 1 : authorityEnd;
+		}
+
+		return indexOf(html, hostStart, authorityEnd, ':');
+	}
+
+	/**
+	 * Finds the start of the path of the href, after any scheme and authority.
+	 *
+	 * @param html
+	 *            raw html containing the href value
+	 * @param start
+	 *            index of the first character of the href value
+	 * @param end
+	 *            index after the last character of the href value
+	 * @return index of the first character of the path
+	 */
+	static int pathStart(CharSequence html, int start, int end) {
+		int authority = authorityStart(html, start, end);
+
+		if (authority >= 0) {
+			return indexOf(html, authority, end, AUTHORITY_END);
+		}
+
+		int colon = schemeEnd(html, start, end);
+		return colon < 0 ? start : colon + 1;
+	}
+
+	/**
+	 * Returns the string that the path of the href is relative to. Together
+	 * with {@link #directoryEnd(String, int, int)}, the resolved path is the
+	 * directory prefix followed by the path of the href.
+	 *
+	 * @param base
+	 *            base url the href will be resolved against
+	 * @param html
+	 *            raw html containing the href value
+	 * @param start
+	 *            index of the first character of the href value
+	 * @param end
+	 *            index after the last character of the href value
+	 * @param pathStart
+	 *            index of the first character of the path
+	 * @param pathEnd
+	 *            index after the last character of the path
+	 * @return string containing the directory prefix
+	 */
+	static String directory(URL base, CharSequence html, int start, int end, int pathStart, int pathEnd) {
+		if (pathStart < pathEnd && html.charAt(pathStart) == '/') {
+			return "";
+		}
+
+		if (authorityStart(html, start, end) >= 0 || base.getPath().isEmpty()) {
+			return "/";
+		}
+
+		return base.getPath();
+	}
+
+	/**
+	 * Returns how much of the directory string to use as the prefix of the
+	 * resolved path.
+	 *
+	 * @param directory
+	 *            string returned by
+	 *            {@link #directory(URL, String, int, int, int, int)}
+	 * @param pathStart
+	 *            index of the first character of the path
+	 * @param pathEnd
+	 *            index after the last character of the path
+	 * @return number of characters of the directory to use
+	 */
+	static int directoryEnd(String directory, int pathStart, int pathEnd) {
+		if (pathStart == pathEnd) {
+			// an empty path keeps the entire base path
+			return directory.length();
+		}
+
+		return directory.lastIndexOf('/') + 1;
+	}
+
+	/**
+	 * Tests whether the path has a {@code .} or {@code ..} segment.
+	 *
+	 * @param html
+	 *            raw html containing the path
+	 * @param pathStart
+	 *            index of the first character of the path
+	 * @param pathEnd
+	 *            index after the last character of the path
+	 * @return true if the path has a dot segment
+	 */
+	static boolean hasDotSegment(CharSequence html, int pathStart, int pathEnd) {
+		int segment = pathStart;
+
+		for (int i = pathStart; i <= pathEnd; i++) {
+			if (i == pathEnd || html.charAt(i) == '/') {
+				int length = i - segment;
+
+				if (length > 0 && html.charAt(segment) == '.'
+						&& (length == 1 || (length == 2 && html.charAt(segment + 1) == '.'))) {
+					return true;
+				}
+
+				segment = i + 1;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Resolves the href against the base url and returns its path with all
+	 * dot segments removed. This allocates, so it is only used for hrefs that
+	 * have dot segments.
+	 *
+	 * @param base
+	 *            base url the href will be resolved against
+	 * @param html
+	 *            raw html containing the href value
+	 * @param start
+	 *            index of the first character of the href value
+	 * @param end
+	 *            index after the last character of the href value
+	 * @return normalized path, or null if the href is not a valid url
+	 */
+	static String resolvePath(URL base, CharSequence html, int start, int end) {
+		try {
+			return removeDotSegments(new URL(base, html.subSequence(start, end).toString()).getPath());
+		}
+		catch (MalformedURLException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Removes the {@code .} and {@code ..} segments of an absolute path as in
+	 * RFC 3986 section 5.2.4. A {@code ..} segment at the root is dropped, so
+	 * {@code /../private/} becomes {@code /private/} just as a server would
+	 * treat it.
+	 *
+	 * @param path
+	 *            absolute path, or an empty string for the root
+	 * @return path without dot segments
+	 */
+	static String removeDotSegments(String path) {
+		String[] segments = path.split("/", -1);
+		ArrayList<String> output = new ArrayList<>(segments.length);
+
+		for (int i = 1; i < segments.length; i++) {
+			String segment = segments[i];
+
+			if (segment.equals(".") || segment.equals("..")) {
+				if (segment.equals("..") && !output.isEmpty()) {
+					output.remove(output.size() - 1);
+				}
+
+				if (i == segments.length - 1) {
+					// a trailing dot segment still ends in a directory
+					output.add("");
+				}
+			}
+			else {
+				output.add(segment);
+			}
+		}
+
+		return "/" + String.join("/", output);
+	}
+
+	/**
+	 * Tests whether the directory prefix followed by the path starts with the
+	 * given prefix.
+	 *
+	 * @param directory
+	 *            string containing the directory prefix
+	 * @param directoryEnd
+	 *            number of characters of the directory to use
+	 * @param html
+	 *            raw html containing the path
+	 * @param pathStart
+	 *            index of the first character of the path
+	 * @param pathEnd
+	 *            index after the last character of the path
+	 * @param prefix
+	 *            prefix to look for
+	 * @return true if the resolved path starts with the prefix
+	 */
+	static boolean startsWith(String directory, int directoryEnd, CharSequence html, int pathStart, int pathEnd,
+			String prefix) {
+		if (prefix.length() > directoryEnd + pathEnd - pathStart) {
+			return false;
+		}
+
+		for (int i = 0; i < prefix.length(); i++) {
+			char c = i < directoryEnd ? directory.charAt(i) : html.charAt(pathStart + i - directoryEnd);
+
+			if (c != prefix.charAt(i)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Finds the first occurrence of any of the given characters.
+	 *
+	 * @param text
+	 *            text to search
+	 * @param start
+	 *            index to start searching from
+	 * @param end
+	 *            index to stop searching at
+	 * @param targets
+	 *            characters to look for
+	 * @return index of the first match, or {@code end} if there is no match
+	 */
+	static int indexOf(CharSequence text, int start, int end, char[] targets) {
+		for (int i = start; i < end; i++) {
+			char c = text.charAt(i);
+
+			for (char target : targets) {
+				if (c == target) {
+					return i;
+				}
+			}
+		}
+
+		return end;
+	}
+
+	/**
+	 * Finds the first occurrence of the given character.
+	 *
+	 * @param text
+	 *            text to search
+	 * @param start
+	 *            index to start searching from
+	 * @param end
+	 *            index to stop searching at
+	 * @param target
+	 *            character to look for
+	 * @return index of the first match, or {@code end} if there is no match
+	 */
+	static int indexOf(CharSequence text, int start, int end, char target) {
+		for (int i = start; i < end; i++) {
+			if (text.charAt(i) == target) {
+				return i;
+			}
+		}
+
+		return end;
+	}
+}
@@ -0,0 +1,50 @@
+import java.net.URL;
+
+/**
+ * Decides whether a raw href value found by the anchor scanner should be
+ * turned into a link. The filter is evaluated before the href is resolved
+ * against the base url, and the href is passed as a region of the original
+ * HTML so that rejected links never allocate any objects.
+ *
+ * @see LinkParser#listLinks(URL, String, LinkFilter)
+ * @see HrefFilter
+ */
+@FunctionalInterface
+public interface LinkFilter {
+
+	/**
+	 * Rejects any href with an explicit scheme other than HTTP(S), such as
+	 * {@code mailto:}, {@code javascript:} or {@code ftp:}. Relative links
+	 * are accepted since they inherit the scheme of the base url.
+	 */
+	public static final LinkFilter HTTP = (base, html, start, end) -> HrefFilter.isHttp(base, html, start, end);
+
+	/**
+	 * Tests whether the href value found in {@code html} between
+	 * {@code start} (inclusive) and {@code end} (exclusive) should be kept.
+	 *
+	 * @param base
+	 *            base url the href will be resolved against
+	 * @param html
+	 *            raw html containing the href value
+	 * @param start
+	 *            index of the first character of the href value
+	 * @param end
+	 *            index after the last character of the href value
+	 * @return true if the href should be converted into a link
+	 */
+	public boolean accept(URL base, String html, int start, int end);
+
+	/**
+	 * Returns a filter that only accepts an href if both this filter and the
+	 * other filter accept it. The other filter is not evaluated if this filter
+	 * already rejected the href.
+	 *
+	 * @param other
+	 *            filter to evaluate after this one
+	 * @return combined filter
+	 */
+	public default LinkFilter and(LinkFilter other) {
+		return (base, html, start, end) -> accept(base, html, start, end) && other.accept(base, html, start, end);
+	}
+}
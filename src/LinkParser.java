@@ -1,11 +1,31 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
 
 public class LinkParser {
 
+	/** Resolver used to look up hosts before connecting. */
+	private static volatile ResolverCache resolver = new ResolverCache();
+
 	// https://developer.mozilla.org/en-US/docs/Web/HTML/Element/a
 	// https://docs.oracle.com/javase/tutorial/networking/urls/creatingUrls.html
 	// https://developer.mozilla.org/en-US/docs/Learn/Common_questions/What_is_a_URL
@@ -37,8 +57,303 @@ public class LinkParser {
 	 * @return HTML as a String or null if the link was not HTML
 	 */
 	public static String fetchHTML(URL url) {
-		// TODO
-		return null;
+		return fetchHTML(url, new FetchLimits());
+	}
+
+	/**
+	 * Fetches the HTML (without any HTTP headers) for the provided URL within
+	 * the provided limits. Will return null if the link does not point to a
+	 * HTML page, a deadline passed, or the page was too large and the limits
+	 * do not allow truncating it.
+	 *
+	 * @param url
+	 *            url to fetch HTML from
+	 * @param limits
+	 *            time and size limits for the fetch
+	 * @return HTML (or a prefix of it) as a String or null if the link was not
+	 *         HTML or could not be fetched within the limits
+	 */
+	public static String fetchHTML(URL url, FetchLimits limits) {
+		try {
+			HTTPResponse response = fetch(url, limits);
+			return response.isHTML() ? response.getText() : null;
+		}
+		catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Fetches the response for the provided HTTP(S) URL using a socket. The
+	 * host is looked up through the shared {@link ResolverCache}.
+	 *
+	 * @param url
+	 *            url to fetch
+	 * @return status, headers and body of the response
+	 * @throws IOException
+	 *             if the url is not HTTP(S) or the response could not be read
+	 */
+	public static HTTPResponse fetch(URL url) throws IOException {
+		return fetch(url, new FetchLimits());
+	}
+
+	/**
+	 * Fetches the response for the provided HTTP(S) URL using a socket within
+	 * the provided limits. The host is looked up through the shared
+	 * {@link ResolverCache}, waiting no longer than the total deadline allows.
+	 * Deadlines are enforced through the socket timeout, and reading stops as soon as the body grows past the maximum size.
+	 *
+	 * @param url
+	 *            url to fetch
+	 * @param limits
+	 *            time and size limits for the fetch
+	 * @return status, headers and body (or a prefix of it) of the response
+	 * @throws SocketTimeoutException
+	 *             if a deadline passed
+	 * @throws IOException
+	 *             if the url is not HTTP(S), the response could not be read, or
+	 *             the body was too large and the limits do not allow truncating
+	 *             it
+	 */
+	public static HTTPResponse fetch(URL url, FetchLimits limits) throws IOException {
+		String protocol = url.getProtocol();
+		boolean https = protocol.equals("https");
+
+		if (!https && !protocol.equals("http")) {
+			throw new IOException("Unsupported protocol: " + url);
+		}
+
+		long totalDeadline = deadline(limits.getTotalTimeout());
+		String host = url.getHost();
+		int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+		InetAddress address = resolver.resolve(host, totalDeadline == 0 ? 0 : remaining(totalDeadline))[0];
+
+		int connectTimeout = limits.getConnectTimeout();
+
+		if (totalDeadline != 0) {
+			int remaining = remaining(totalDeadline);
+			connectTimeout = connectTimeout == 0 ? remaining : Math.min(connectTimeout, remaining);
+		}
+
+		try (Socket socket = connect(address, host, port, https, connectTimeout)) {
+			String file = url.getFile().isEmpty() ? "/" : url.getFile();
+			String authority = url.getPort() < 0 || url.getPort() == url.getDefaultPort() ? host : host + ":" + port;
+			String request = String.format("GET %s HTTP/1.0\r\nHost: %s\r\nConnection: close\r\n\r\n", file,
+					authority);
+
+			// bounds the TLS handshake (if any) while sending the request
+			socket.setSoTimeout(totalDeadline == 0 ? 0 : remaining(totalDeadline));
+
+			OutputStream output = socket.getOutputStream();
+			output.write(request.getBytes(StandardCharsets.US_ASCII));
+			output.flush();
+
+			long firstByteDeadline = deadline(limits.getFirstByteTimeout());
+			InputStream input = new BufferedInputStream(new DeadlineInputStream(socket, firstByteDeadline, totalDeadline));
+
+			// counted as if every line ends with CRLF
+			long headerBytes = limits.getMaxHeaderBytes() < 0 ? Long.MAX_VALUE : limits.getMaxHeaderBytes();
+			String status = readLine(input, headerBytes, url);
+			headerBytes -= status == null ? 0 : status.length() + 2;
+			String[] parts = status == null ? new String[0] : status.split("\\s+", 3);
+
+			if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+				throw new IOException("Invalid status line: " + status);
+			}
+
+			HashMap<String, String> headers = new HashMap<>();
+			String line;
+
+			while ((line = readLine(input, headerBytes, url)) != null && !line.isEmpty()) {
+				headerBytes -= line.length() + 2;
+				int colon = line.indexOf(':');
+
+				if (colon > 0) {
+					headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+				}
+			}
+
+			int maxBytes = limits.getMaxBytes();
+
+			if (maxBytes >= 0 && !limits.isTruncate() && contentLength(headers) > maxBytes) {
+				throw new IOException("Response larger than " + maxBytes + " bytes: " + url);
+			}
+
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			boolean truncated = false;
+			int read;
+
+			while ((read = input.read(buffer)) >= 0) {
+				if (maxBytes >= 0 && body.size() + read > maxBytes) {
+					if (!limits.isTruncate()) {
+						throw new IOException("Response larger than " + maxBytes + " bytes: " + url);
+					}
+
+					body.write(buffer, 0, maxBytes - body.size());
+					truncated = true;
+					break;
+				}
+
+				body.write(buffer, 0, read);
+			}
+
+			try {
+				return new HTTPResponse(Integer.parseInt(parts[1]), headers, body.toByteArray(), truncated);
+			}
+			catch (NumberFormatException e) {
+				throw new IOException("Invalid status line: " + status, e);
+			}
+		}
+	}
+
+	/**
+	 * Returns the resolver used to look up hosts.
+	 *
+	 * @return shared resolver cache
+	 */
+	public static ResolverCache getResolver() {
+		return resolver;
+	}
+
+	/**
+	 * Replaces the resolver used to look up hosts, for example with one backed
+	 * by a stub resolver.
+	 *
+	 * @param resolver
+	 *            resolver cache to use
+	 */
+	public static void setResolver(ResolverCache resolver) {
+		LinkParser.resolver = resolver;
+	}
+
+	/**
+	 * Opens a socket to the host, wrapped in TLS if necessary. The TLS
+	 * certificate must be valid for the host name, as it would be for HTTPS.
+	 *
+	 * @param address
+	 *            resolved address of the host
+	 * @param host
+	 *            name of the host (used for TLS)
+	 * @param port
+	 *            port to connect to
+	 * @param https
+	 *            whether to use TLS
+	 * @param timeout
+	 *            connect timeout in milliseconds, or 0 for no limit
+	 * @return connected socket
+	 * @throws IOException
+	 *             if the connection could not be made
+	 */
+	private static Socket connect(InetAddress address, String host, int port, boolean https, int timeout)
+			throws IOException {
+		Socket socket = new Socket();
+
+		try {
+			socket.connect(new InetSocketAddress(address, port), timeout);
+
+			if (https) {
+				SSLSocket secure = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault()).createSocket(socket,
+						host, port, true);
+
+				// layered sockets do not check the certificate matches the host unless asked
+				SSLParameters parameters = secure.getSSLParameters();
+				parameters.setEndpointIdentificationAlgorithm("HTTPS");
+				secure.setSSLParameters(parameters);
+				return secure;
+			}
+
+			return socket;
+		}
+		catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the {@link System#nanoTime()} when a timeout starting now ends.
+	 *
+	 * @param timeout
+	 *            timeout in milliseconds, or 0 for no limit
+	 * @return deadline in nanoseconds, or 0 for no deadline
+	 */
+	private static long deadline(int timeout) {
+		if (timeout == 0) {
+			return 0;
+		}
+
+		long deadline = System.nanoTime() + timeout * 1000000L;
+		return deadline == 0 ? 1 : deadline;
+	}
+
+	/**
+	 * Returns the time left until a deadline.
+	 *
+	 * @param deadline
+	 *            deadline in nanoseconds
+	 * @return milliseconds left, rounded up
+	 * @throws SocketTimeoutException
+	 *             if the deadline has passed
+	 */
+	private static int remaining(long deadline) throws IOException {
+		long millis = (deadline - System.nanoTime() + 999999) / 1000000;
+
+		if (millis <= 0) {
+			throw new SocketTimeoutException("Deadline passed");
+		}
+
+		return (int) Math.min(millis, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Returns the content length from the response headers.
+	 *
+	 * @param headers
+	 *            response headers with lowercase names
+	 * @return content length, or -1 if missing or invalid
+	 */
+	private static long contentLength(HashMap<String, String> headers) {
+		try {
+			String length = headers.get("content-length");
+			return length == null ? -1 : Long.parseLong(length);
+		}
+		catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Reads a line of a HTTP response header, without the line ending.
+	 *
+	 * @param input
+	 *            stream to read from
+	 * @param limit
+	 *            maximum number of header bytes left, including the line
+	 *            ending
+	 * @param url
+	 *            url being fetched, for the error message
+	 * @return line of text, or null if the stream ended before any text
+	 * @throws IOException
+	 *             if unable to read from the stream, or the line would go
+	 *             over the limit
+	 */
+	private static String readLine(InputStream input, long limit, URL url) throws IOException {
+		StringBuilder line = new StringBuilder();
+		long read = 0;
+		int c;
+
+		while ((c = input.read()) >= 0 && c != '\n') {
+			if (++read + 1 > limit) {
+				throw new IOException("Response headers too large: " + url);
+			}
+
+			if (c != '\r') {
+				line.append((char) c);
+			}
+		}
+
+		return c < 0 && line.length() == 0 ? null : line.toString();
 	}
 
 	/**
@@ -52,12 +367,293 @@ public class LinkParser {
 	 * @param html
 	 *            raw html associated with the base url
 	 * @return cleaned list of all http(s) links in the order they were found
+	 *
+	 * @see #listLinks(URL, String, LinkFilter)
 	 */
 	public static ArrayList<URL> listLinks(URL base, String html) {
+		return listLinks(base, html, LinkFilter.HTTP);
+	}
+
+	/**
+	 * Returns a list of all the HTTP(S) links found in the href attribute of the
+	 * anchor tags in the provided HTML that are accepted by the filter. The
+	 * filter is evaluated on the raw href before it is converted to an absolute
+	 * link, so rejected links are never resolved or cleaned. No hosts are
+	 * looked up unless the filter does so, see
+	 * {@link ResolverCache#prefetching(LinkFilter)}.
+	 *
+	 * @param base
+	 *            base url used to convert relative links to absolute
+	 * @param html
+	 *            raw html associated with the base url
+	 * @param filter
+	 *            filter used to decide which hrefs to keep
+	 * @return cleaned list of all accepted http(s) links in the order they were
+	 *         found
+	 */
+	public static ArrayList<URL> listLinks(URL base, String html, LinkFilter filter) {
+		return listLinks(base, html, filter, (ArrayList<String>) null);
+	}
+
+	/**
+	 * Scans the html for links accepted by the filter, optionally collecting
+	 * the raw href of each link.
+	 *
+	 * @param base
+	 *            base url used to convert relative links to absolute
+	 * @param html
+	 *            raw html associated with the base url
+	 * @param filter
+	 *            filter used to decide which hrefs to keep
+	 * @param hrefs
+	 *            list to add the raw href of each link to, or null
+	 * @return cleaned list of all accepted http(s) links in the order they were
+	 *         found
+	 */
+	private static ArrayList<URL> listLinks(URL base, String html, LinkFilter filter, ArrayList<String> hrefs) {
 		ArrayList<URL> links = new ArrayList<URL>();
-		
-		// TODO
+		int[] href = new int[2];
+		int index = 0;
+
+		while ((index = html.indexOf('<', index)) >= 0) {
+			index++;
+
+			if (html.startsWith("!--", index)) {
+				int close = html.indexOf("-->", index + 3);
+				index = close < 0 ? html.length() : close + 3;
+				continue;
+			}
+
+			if (index + 1 >= html.length() || Character.toLowerCase(html.charAt(index)) != 'a'
+					|| !isTagNameEnd(html.charAt(index + 1))) {
+				continue;
+			}
+
+			index = scanAnchor(html, index + 1, href);
+
+			if (href[0] < 0 || !filter.accept(base, html, href[0], href[1])) {
+				continue;
+			}
+
+			try {
+				String text = html.substring(href[0], href[1]);
+				URL url = new URL(base, text);
+				String protocol = url.getProtocol();
+
+				if (protocol.equals("http") || protocol.equals("https")) {
+					links.add(clean(url));
+
+					if (hrefs != null) {
+						hrefs.add(text);
+					}
+				}
+			}
+			catch (MalformedURLException e) {
+				continue;
+			}
+		}
 
 		return links;
 	}
+
+	/**
+	 * Returns the same links as {@link #listLinks(URL, String, LinkFilter)},
+	 * but reuses the links stored for the base url if the html has not changed
+	 * since it was last parsed. Otherwise the html is scanned and the links are
+	 * stored for next time.
+	 *
+	 * <p>
+	 * The store keeps every http(s) link of the page together with its raw
+	 * href, and the filter is applied to the raw hrefs afterwards, whether or
+	 * not the page was stored. The filter sees each href on its own instead of
+	 * in place in the page, but otherwise the result is always the same as
+	 * from {@link #listLinks(URL, String, LinkFilter)}. Filters whose answer
+	 * changes over time, such as {@link RobotsCache}, therefore see every href
+	 * again on each call, and one store may be used with different filters.
+	 * </p>
+	 *
+	 * @param base
+	 *            base url used to convert relative links to absolute
+	 * @param html
+	 *            raw html associated with the base url
+	 * @param filter
+	 *            filter used to decide which hrefs to keep
+	 * @param store
+	 *            links from previous crawls, keyed by cleaned url
+	 * @return cleaned list of all accepted http(s) links in the order they were
+	 *         found
+	 */
+	public static ArrayList<URL> listLinks(URL base, String html, LinkFilter filter, PageStore store) {
+		String key = clean(base).toString();
+		long hash = PageStore.hash(html);
+		List<String> hrefs = null;
+		List<URL> links = null;
+
+		try {
+			PageStore.Page page = store.get(key, hash);
+
+			if (page != null) {
+				hrefs = page.getHrefs();
+				links = page.getLinks();
+			}
+		}
+		catch (IOException e) {
+			// fall back to scanning the html
+		}
+
+		if (links == null) {
+			ArrayList<String> scanned = new ArrayList<>();
+			links = listLinks(base, html, LinkFilter.HTTP, scanned);
+			hrefs = scanned;
+
+			try {
+				store.put(key, hash, hrefs, links);
+			}
+			catch (IOException e) {
+				// the links are still correct, just not remembered
+			}
+		}
+
+		ArrayList<URL> accepted = new ArrayList<>(links.size());
+
+		for (int i = 0; i < links.size(); i++) {
+			String href = hrefs.get(i);
+
+			if (filter.accept(base, href, 0, href.length())) {
+				accepted.add(links.get(i));
+			}
+		}
+
+		return accepted;
+	}
+
+	/**
+	 * Scans the attributes of an anchor tag, starting just after the tag name,
+	 * and finds the value of the first href attribute. The start and end of
+	 * the value (with surrounding whitespace removed) are stored in the
+	 * provided array, or -1 if the tag has no complete href attribute.
+	 *
+	 * @param html
+	 *            raw html being scanned
+	 * @param index
+	 *            index just after the tag name
+	 * @param href
+	 *            array to store the start and end of the href value in
+	 * @return index just after the end of the tag
+	 */
+	private static int scanAnchor(String html, int index, int[] href) {
+		int length = html.length();
+		href[0] = -1;
+		href[1] = -1;
+
+		while (true) {
+			index = skipWhitespace(html, index);
+
+			if (index >= length) {
+				return length;
+			}
+
+			char c = html.charAt(index);
+
+			if (c == '>') {
+				return index + 1;
+			}
+
+			if (c == '/') {
+				index++;
+				continue;
+			}
+
+			int nameStart = index;
+
+			while (index < length && !isTagNameEnd(c = html.charAt(index)) && c != '=') {
+				index++;
+			}
+
+			int nameEnd = index;
+			index = skipWhitespace(html, index);
+
+			if (index >= length || html.charAt(index) != '=') {
+				// attribute without a value
+				continue;
+			}
+
+			index = skipWhitespace(html, index + 1);
+
+			if (index >= length) {
+				return length;
+			}
+
+			int valueStart;
+			int valueEnd;
+			char quote = html.charAt(index);
+
+			if (quote == '"' || quote == '\'') {
+				valueStart = index + 1;
+				valueEnd = html.indexOf(quote, valueStart);
+
+				if (valueEnd < 0) {
+					return length;
+				}
+
+				index = valueEnd + 1;
+			}
+			else {
+				valueStart = index;
+
+				while (index < length && !Character.isWhitespace(c = html.charAt(index)) && c != '>') {
+					index++;
+				}
+
+				if (index >= length) {
+					return length;
+				}
+
+				valueEnd = index;
+			}
+
+			if (href[0] < 0 && nameEnd - nameStart == 4 && html.regionMatches(true, nameStart, "href", 0, 4)) {
+				while (valueStart < valueEnd && Character.isWhitespace(html.charAt(valueStart))) {
+					valueStart++;
+				}
+
+				while (valueEnd > valueStart && Character.isWhitespace(html.charAt(valueEnd - 1))) {
+					valueEnd--;
+				}
+
+				href[0] = valueStart;
+				href[1] = valueEnd;
+			}
+		}
+	}
+
+	/**
+	 * Returns the index of the first non-whitespace character at or after the
+	 * provided index.
+	 *
+	 * @param html
+	 *            raw html being scanned
+	 * @param index
+	 *            index to start at
+	 * @return index of the first non-whitespace character, or the length of
+	 *         the html if there is none
+	 */
+	private static int skipWhitespace(String html, int index) {
+		while (index < html.length() && Character.isWhitespace(html.charAt(index))) {
+			index++;
+		}
+
+		return index;
+	}
+
+	/**
+	 * Tests whether the character ends a tag or attribute name.
+	 *
+	 * @param c
+	 *            character to test
+	 * @return true if the character is whitespace, a slash or the end of a tag
+	 */
+	static boolean isTagNameEnd(char c) {
+		return Character.isWhitespace(c) || c == '/' || c == '>';
+	}
 }
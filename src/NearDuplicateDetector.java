@@ -0,0 +1,446 @@
+import java.util.Arrays;
+import java.util.OptionalLong;
+
+/**
+ * Detects pages that are identical or nearly identical to a page seen before,
+ * so a crawler can skip parsing mirrored content returned by
+ * {@link LinkParser#fetchHTML(java.net.URL)}. Each page is reduced to a 64-bit
+ * SimHash fingerprint of the overlapping three word shingles in its text
+ * (ignoring tags, scripts and styles), and two pages are near duplicates if
+ * their fingerprints differ in at most a threshold number of bits.
+ *
+ * <p>
+ * Fingerprints are split into one more band than the threshold. Two
+ * fingerprints within the threshold must agree exactly on at least one band,
+ * so each band is indexed separately and only fingerprints sharing a band
+ * with the new page are compared. The indexes are primitive hash tables, so
+ * each page costs a few dozen bytes no matter how many pages are seen.
+ * </p>
+ *
+ * <p>
+ * All methods are synchronized, so one detector may be shared by crawler
+ * threads.
+ * </p>
+ */
+public class NearDuplicateDetector {
+
+	/** Default maximum number of differing bits for near duplicates. */
+	public static final int DEFAULT_THRESHOLD = 3;
+
+	/** Number of words in each shingle. */
+	private static final int SHINGLE = 3;
+
+	/** Elements whose contents are not text. */
+	private static final String[] RAW_TEXT = { "script", "style" };
+
+	/** Maximum number of differing bits for near duplicates. */
+	private final int threshold;
+
+	/** Bit offset of each band within the fingerprint. */
+	private final int[] offsets;
+
+	/** Mask (before shifting) of each band. */
+	private final long[] masks;
+
+	/** Fingerprints remembered, in the order they were added. */
+	private long[] fingerprints;
+
+	/** Number of fingerprints remembered. */
+	private int size;
+
+	/**
+	 * One open addressing table per band. Each fingerprint is stored (as its
+	 * index plus one) at the first free slot from the hash of its band value,
+	 * and 0 marks a free slot.
+	 */
+	private int[][] tables;
+
+	/** Number of pages checked. */
+	private long checked;
+
+	/** Number of pages that were near (or exact) duplicates. */
+	private long duplicates;
+
+	/** Number of pages that had the exact same fingerprint as a seen page. */
+	private long exact;
+
+	/** Number of fingerprints compared bit by bit. */
+	private long compared;
+
+	/**
+	 * Initializes a detector with the default threshold.
+	 */
+	public NearDuplicateDetector() {
+		this(DEFAULT_THRESHOLD);
+	}
+
+	/**
+	 * Initializes a detector with the provided threshold.
+	 *
+	 * @param threshold
+	 *            maximum number of differing bits for near duplicates, from 0
+	 *            to 31
+	 */
+	public NearDuplicateDetector(int threshold) {
+		if (threshold < 0 || threshold > 31) {
+			throw new IllegalArgumentException("Invalid threshold: " + threshold);
+		}
+
+		this.threshold = threshold;
+
+		int count = threshold + 1;
+		this.offsets = new int[count];
+		this.masks = new long[count];
+		this.fingerprints = new long[16];
+		this.tables = new int[count][32];
+
+		int offset = 0;
+
+		for (int i = 0; i < count; i++) {
+			// spread the 64 bits as evenly as possible over the bands
+			int width = 64 / count + (i < 64 % count ? 1 : 0);
+			offsets[i] = offset;
+			masks[i] = width == 64 ? -1L : (1L << width) - 1;
+			offset += width;
+		}
+	}
+
+	/**
+	 * Tests whether the page is a near duplicate of a page seen before. If
+	 * not, the page is remembered for future checks. Pages without any text,
+	 * such as framesets or pages of image links, have no fingerprint and are
+	 * never reported, remembered or counted.
+	 *
+	 * @param html
+	 *            raw html of the page
+	 * @return true if a page within the threshold was seen before
+	 */
+	public boolean isDuplicate(String html) {
+		OptionalLong fingerprint = fingerprint(html);
+		return fingerprint.isPresent() && isDuplicate(fingerprint.getAsLong());
+	}
+
+	/**
+	 * Tests whether the fingerprint is within the threshold of a fingerprint
+	 * seen before. If not, the fingerprint is remembered for future checks.
+	 *
+	 * @param fingerprint
+	 *            fingerprint of the page
+	 * @return true if a fingerprint within the threshold was seen before
+	 */
+	public synchronized boolean isDuplicate(long fingerprint) {
+		checked++;
+
+		for (int i = 0; i < offsets.length; i++) {
+			long value = band(fingerprint, i);
+			int[] table = tables[i];
+			int mask = table.length - 1;
+
+			for (int slot = slot(value, mask); table[slot] != 0; slot = (slot + 1) & mask) {
+				long other = fingerprints[table[slot] - 1];
+
+				if (band(other, i) != value) {
+					continue;
+				}
+
+				compared++;
+				int distance = Long.bitCount(fingerprint ^ other);
+
+				if (distance <= threshold) {
+					duplicates++;
+					exact += distance == 0 ? 1 : 0;
+					return true;
+				}
+			}
+		}
+
+		remember(fingerprint);
+		return false;
+	}
+
+	/**
+	 * Returns the number of pages checked.
+	 *
+	 * @return pages checked
+	 */
+	public synchronized long getChecked() {
+		return checked;
+	}
+
+	/**
+	 * Returns the number of pages that were near (or exact) duplicates.
+	 *
+	 * @return duplicate pages
+	 */
+	public synchronized long getDuplicates() {
+		return duplicates;
+	}
+
+	/**
+	 * Returns the number of duplicate pages with the exact same fingerprint as
+	 * a page seen before.
+	 *
+	 * @return exact duplicate pages
+	 */
+	public synchronized long getExactDuplicates() {
+		return exact;
+	}
+
+	/**
+	 * Returns the number of fingerprints compared bit by bit. Compared to the
+	 * number of pages checked, this shows how well the bands narrow down the
+	 * candidates.
+	 *
+	 * @return fingerprints compared
+	 */
+	public synchronized long getCompared() {
+		return compared;
+	}
+
+	/**
+	 * Returns the fraction of pages checked that were duplicates.
+	 *
+	 * @return duplicate hit rate from 0 to 1
+	 */
+	public synchronized double getHitRate() {
+		return checked == 0 ? 0 : (double) duplicates / checked;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%d checked, %d duplicates (%d exact), %.1f%% hit rate, %.2f compared per page", checked,
+				duplicates, exact, getHitRate() * 100, checked == 0 ? 0 : (double) compared / checked);
+	}
+
+	/**
+	 * Adds a fingerprint to every band table, doubling the tables first if
+	 * they would become more than half full.
+	 *
+	 * @param fingerprint
+	 *            fingerprint to remember
+	 */
+	private void remember(long fingerprint) {
+		if (size == fingerprints.length) {
+			fingerprints = Arrays.copyOf(fingerprints, size * 2);
+		}
+
+		fingerprints[size++] = fingerprint;
+
+		if (size * 2 > tables[0].length) {
+			int length = tables[0].length * 2;
+
+			for (int i = 0; i < tables.length; i++) {
+				tables[i] = new int[length];
+
+				for (int index = 0; index < size; index++) {
+					insert(i, index);
+				}
+			}
+		}
+		else {
+			for (int i = 0; i < tables.length; i++) {
+				insert(i, size - 1);
+			}
+		}
+	}
+
+	/**
+	 * Stores a remembered fingerprint in the table of a band.
+	 *
+	 * @param band
+	 *            index of the band
+	 * @param index
+	 *            index of the fingerprint
+	 */
+	private void insert(int band, int index) {
+		int[] table = tables[band];
+		int mask = table.length - 1;
+		int slot = slot(band(fingerprints[index], band), mask);
+
+		while (table[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+
+		table[slot] = index + 1;
+	}
+
+	/**
+	 * Returns the first slot to probe for a band value.
+	 *
+	 * @param value
+	 *            value of the band
+	 * @param mask
+	 *            table length minus one
+	 * @return slot in the table
+	 */
+	private static int slot(long value, int mask) {
+		return (int) mix(value) & mask;
+	}
+
+	/**
+	 * Returns the value of a band of the fingerprint.
+	 *
+	 * @param fingerprint
+	 *            fingerprint to split
+	 * @param band
+	 *            index of the band
+	 * @return value of the band
+	 */
+	private long band(long fingerprint, int band) {
+		return (fingerprint >>> offsets[band]) & masks[band];
+	}
+
+	/**
+	 * Computes the 64-bit SimHash fingerprint of the text of a page. Tags and
+	 * the contents of {@code script} and {@code style} elements are skipped,
+	 * words are compared ignoring case, and each run of three consecutive
+	 * words is one feature.
+	 *
+	 * @param html
+	 *            raw html of the page
+	 * @return fingerprint of the page, or empty if the page has no text
+	 */
+	public static OptionalLong fingerprint(String html) {
+		int[] counts = new int[64];
+		long[] words = new long[SHINGLE];
+		int seen = 0;
+		int length = html.length();
+		int index = 0;
+
+		while (index < length) {
+			char c = html.charAt(index);
+
+			if (c == '<') {
+				index = skipTag(html, index);
+				continue;
+			}
+
+			if (!Character.isLetterOrDigit(c)) {
+				index++;
+				continue;
+			}
+
+			// FNV-1a over the lowercase word
+			long hash = 0xcbf29ce484222325L;
+
+			while (index < length && Character.isLetterOrDigit(c = html.charAt(index))) {
+				hash ^= Character.toLowerCase(c);
+				hash *= 0x100000001b3L;
+				index++;
+			}
+
+			words[seen % SHINGLE] = hash;
+			seen++;
+
+			if (seen >= SHINGLE) {
+				add(counts, shingle(words, seen));
+			}
+		}
+
+		if (seen == 0) {
+			return OptionalLong.empty();
+		}
+
+		if (seen < SHINGLE) {
+			// too short for a single shingle, so use what there is
+			add(counts, shingle(words, seen));
+		}
+
+		long fingerprint = 0;
+
+		for (int bit = 0; bit < 64; bit++) {
+			if (counts[bit] > 0) {
+				fingerprint |= 1L << bit;
+			}
+		}
+
+		return OptionalLong.of(fingerprint);
+	}
+
+	/**
+	 * Skips a tag, and also the contents and end tag of a {@code script} or
+	 * {@code style} element since those are not text.
+	 *
+	 * @param html
+	 *            raw html of the page
+	 * @param index
+	 *            index of the {@code <} that starts the tag
+	 * @return index just after the tag (or end tag)
+	 */
+	private static int skipTag(String html, int index) {
+		int length = html.length();
+		int close = html.indexOf('>', index);
+
+		if (close < 0) {
+			return length;
+		}
+
+		for (String name : RAW_TEXT) {
+			int nameEnd = index + 1 + name.length();
+
+			if (nameEnd < length && html.regionMatches(true, index + 1, name, 0, name.length())
+					&& LinkParser.isTagNameEnd(html.charAt(nameEnd))) {
+				for (int end = html.indexOf("</", close + 1); end >= 0; end = html.indexOf("</", end + 2)) {
+					if (html.regionMatches(true, end + 2, name, 0, name.length())) {
+						int endClose = html.indexOf('>', end);
+						return endClose < 0 ? length : endClose + 1;
+					}
+				}
+
+				return length;
+			}
+		}
+
+		return close + 1;
+	}
+
+	/**
+	 * Combines the most recent words into the hash of a shingle.
+	 *
+	 * @param words
+	 *            circular buffer of word hashes
+	 * @param seen
+	 *            number of words seen so far
+	 * @return hash of the shingle
+	 */
+	private static long shingle(long[] words, int seen) {
+		long hash = 0;
+
+		for (int i = Math.max(0, seen - SHINGLE); i < seen; i++) {
+			hash = mix(hash * 31 + words[i % SHINGLE]);
+		}
+
+		return hash;
+	}
+
+	/**
+	 * Adds a feature hash to the SimHash bit counts.
+	 *
+	 * @param counts
+	 *            bit counts to update
+	 * @param hash
+	 *            hash of the feature
+	 */
+	private static void add(int[] counts, long hash) {
+		for (int bit = 0; bit < 64; bit++) {
+			counts[bit] += ((hash >>> bit) & 1) == 1 ? 1 : -1;
+		}
+	}
+
+	/**
+	 * Scrambles the bits of a hash (the MurmurHash3 finalizer), so that
+	 * similar inputs produce unrelated outputs.
+	 *
+	 * @param hash
+	 *            hash to scramble
+	 * @return scrambled hash
+	 */
+	static long mix(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+}
@@ -0,0 +1,419 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UTFDataFormatException;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers the links extracted from each page (with the raw href of each
+ * link), keyed by the cleaned page url, together with a 64-bit hash of the
+ * page body. On a recrawl, pages whose body
+ * hash has not changed can return their links without being scanned again.
+ * See {@link LinkParser#listLinks(URL, String, LinkFilter, PageStore)}.
+ *
+ * <p>
+ * Every page is appended to a log file as it is stored, and the latest record
+ * for each url is indexed by its file offset. Only the most recently used
+ * pages are kept decoded in memory; older pages are read back from the file
+ * when needed. Once the outdated records in the file outnumber the current
+ * ones, the file is compacted automatically, so its size stays proportional
+ * to the number of pages stored.
+ * </p>
+ *
+ * <p>
+ * All methods are synchronized, so one store may be shared by crawler
+ * threads.
+ * </p>
+ */
+public class PageStore implements Closeable {
+
+	/** Number of outdated records allowed before compacting a small store. */
+	private static final int MIN_DEAD = 64;
+
+	/** Location of the log file. */
+	private final Path path;
+
+	/** Maximum number of pages kept decoded in memory. */
+	private final int capacity;
+
+	/** Most recently used pages, by cleaned url. */
+	private final LinkedHashMap<String, Page> cache;
+
+	/** File offset of the latest record for each url. */
+	private final HashMap<String, Long> offsets;
+
+	/** Open log file. */
+	private RandomAccessFile file;
+
+	/** Number of lookups where the body hash matched. */
+	private long hits;
+
+	/** Number of lookups where the page was missing or had changed. */
+	private long misses;
+
+	/** Number of outdated records in the file. */
+	private int dead;
+
+	/**
+	 * Opens (or creates) the store backed by the provided file.
+	 *
+	 * @param path
+	 *            location of the log file
+	 * @param capacity
+	 *            maximum number of pages kept decoded in memory
+	 * @throws IOException
+	 *             if unable to open or read the file
+	 */
+	public PageStore(Path path, int capacity) throws IOException {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Invalid capacity: " + capacity);
+		}
+
+		this.path = path;
+		this.capacity = capacity;
+		this.offsets = new HashMap<>();
+		this.cache = new LinkedHashMap<String, Page>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Page> eldest) {
+				return size() > PageStore.this.capacity;
+			}
+		};
+
+		open();
+	}
+
+	/**
+	 * Returns the page stored for the url if the stored body hash matches.
+	 *
+	 * @param url
+	 *            cleaned url of the page
+	 * @param hash
+	 *            hash of the current page body, see {@link #hash(String)}
+	 * @return stored page, or null if the page is not stored or its body has
+	 *         changed
+	 * @throws IOException
+	 *             if unable to read the page from the file
+	 */
+	public synchronized Page get(String url, long hash) throws IOException {
+		Page page = cache.get(url);
+
+		if (page == null) {
+			Long offset = offsets.get(url);
+
+			if (offset != null) {
+				page = read(offset);
+				cache.put(url, page);
+			}
+		}
+
+		if (page == null || page.hash != hash) {
+			misses++;
+			return null;
+		}
+
+		hits++;
+		return page;
+	}
+
+	/**
+	 * Stores the links extracted from a page, replacing any previous links.
+	 *
+	 * @param url
+	 *            cleaned url of the page
+	 * @param hash
+	 *            hash of the page body, see {@link #hash(String)}
+	 * @param hrefs
+	 *            raw href of each link, as written in the page
+	 * @param links
+	 *            links extracted from the page
+	 * @throws IOException
+	 *             if unable to write the page to the file
+	 */
+	public synchronized void put(String url, long hash, List<String> hrefs, List<URL> links) throws IOException {
+		if (hrefs.size() != links.size()) {
+			throw new IllegalArgumentException("Expected one href per link");
+		}
+
+		Page page = new Page(hash, hrefs, links);
+		byte[] record;
+
+		try {
+			record = encode(url, page);
+		}
+		catch (UTFDataFormatException e) {
+			// a url longer than 64KB is not worth remembering
+			return;
+		}
+
+		long offset = file.length();
+		file.seek(offset);
+		file.write(record);
+
+		cache.put(url, page);
+
+		if (offsets.put(url, offset) != null && ++dead > Math.max(MIN_DEAD, offsets.size())) {
+			compact();
+		}
+	}
+
+	/**
+	 * Returns the number of pages stored.
+	 *
+	 * @return number of pages
+	 */
+	public synchronized int size() {
+		return offsets.size();
+	}
+
+	/**
+	 * Returns the number of lookups where the body hash matched.
+	 *
+	 * @return number of hits
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of lookups where the page was missing or had changed.
+	 *
+	 * @return number of misses
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Rewrites the file with only the latest record for each page. This
+	 * happens automatically once outdated records outnumber current ones, but
+	 * may also be called directly, for example before backing up the file.
+	 *
+	 * @throws IOException
+	 *             if unable to rewrite the file
+	 */
+	public synchronized void compact() throws IOException {
+		Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+
+		try (DataOutputStream output = new DataOutputStream(Files.newOutputStream(temp))) {
+			for (Map.Entry<String, Long> entry : offsets.entrySet()) {
+				Page page = cache.containsKey(entry.getKey()) ? cache.get(entry.getKey()) : read(entry.getValue());
+				output.write(encode(entry.getKey(), page));
+			}
+		}
+
+		file.close();
+		Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+		open();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		file.close();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%d pages (%d in memory), %d hits, %d misses", offsets.size(), cache.size(), hits,
+				misses);
+	}
+
+	/**
+	 * Opens the file and indexes the latest record for each url. A partially
+	 * written record at the end of the file (from a crash) is removed.
+	 *
+	 * @throws IOException
+	 *             if unable to open or read the file
+	 */
+	private void open() throws IOException {
+		offsets.clear();
+		cache.clear();
+		dead = 0;
+		file = new RandomAccessFile(path.toFile(), "rw");
+
+		long offset = 0;
+		long length = file.length();
+		file.seek(0);
+
+		try {
+			DataInputStream input = new DataInputStream(
+					new BufferedInputStream(Channels.newInputStream(file.getChannel())));
+
+			while (offset < length) {
+				int size = input.readInt();
+
+				if (size < 0 || offset + 4 + size > length) {
+					break;
+				}
+
+				byte[] record = new byte[size];
+				input.readFully(record);
+
+				DataInputStream fields = new DataInputStream(new ByteArrayInputStream(record));
+				fields.readLong();
+				dead += offsets.put(fields.readUTF(), offset) == null ? 0 : 1;
+				offset += 4 + size;
+			}
+		}
+		catch (EOFException e) {
+			// partially written record
+		}
+
+		file.setLength(offset);
+	}
+
+	/**
+	 * Reads the page stored at the offset.
+	 *
+	 * @param offset
+	 *            file offset of the record
+	 * @return page read from the file
+	 * @throws IOException
+	 *             if unable to read the record
+	 */
+	private Page read(long offset) throws IOException {
+		file.seek(offset);
+		int size = file.readInt();
+		byte[] record = new byte[size];
+		file.readFully(record);
+
+		DataInputStream input = new DataInputStream(new ByteArrayInputStream(record));
+		long hash = input.readLong();
+		input.readUTF();
+		int count = input.readInt();
+		ArrayList<String> hrefs = new ArrayList<>(count);
+		ArrayList<URL> links = new ArrayList<>(count);
+
+		for (int i = 0; i < count; i++) {
+			hrefs.add(input.readUTF());
+			links.add(new URL(input.readUTF()));
+		}
+
+		return new Page(hash, hrefs, links);
+	}
+
+	/**
+	 * Encodes a page as a length-prefixed record.
+	 *
+	 * @param url
+	 *            cleaned url of the page
+	 * @param page
+	 *            page to encode
+	 * @return bytes of the record
+	 * @throws IOException
+	 *             if the page could not be encoded
+	 */
+	private static byte[] encode(String url, Page page) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(bytes);
+
+		output.writeInt(0);
+		output.writeLong(page.hash);
+		output.writeUTF(url);
+		output.writeInt(page.links.size());
+
+		for (int i = 0; i < page.links.size(); i++) {
+			output.writeUTF(page.hrefs.get(i));
+			output.writeUTF(page.links.get(i).toString());
+		}
+
+		byte[] record = bytes.toByteArray();
+		int size = record.length - 4;
+		record[0] = (byte) (size >>> 24);
+		record[1] = (byte) (size >>> 16);
+		record[2] = (byte) (size >>> 8);
+		record[3] = (byte) size;
+		return record;
+	}
+
+	/**
+	 * Computes a fast 64-bit hash of a page body, four characters at a time.
+	 *
+	 * @param html
+	 *            page body to hash
+	 * @return hash of the body
+	 */
+	public static long hash(String html) {
+		int length = html.length();
+		long hash = 0x9e3779b97f4a7c15L ^ length;
+		int index = 0;
+
+		for (; index + 4 <= length; index += 4) {
+			long block = html.charAt(index) | (long) html.charAt(index + 1) << 16 | (long) html.charAt(index + 2) << 32
+					| (long) html.charAt(index + 3) << 48;
+			hash = Long.rotateLeft(hash ^ block * 0xc2b2ae3d27d4eb4fL, 31) * 0x9e3779b97f4a7c15L;
+		}
+
+		for (; index < length; index++) {
+			hash = Long.rotateLeft(hash ^ html.charAt(index) * 0x165667b19e3779f9L, 23) * 0x9e3779b97f4a7c15L;
+		}
+
+		return NearDuplicateDetector.mix(hash);
+	}
+
+	/**
+	 * The body hash, raw hrefs and links of a stored page.
+	 */
+	public static class Page {
+
+		/** Hash of the page body. */
+		private final long hash;
+
+		/** Raw href of each link. */
+		private final List<String> hrefs;
+
+		/** Links extracted from the page. */
+		private final List<URL> links;
+
+		/**
+		 * Initializes a page.
+		 *
+		 * @param hash
+		 *            hash of the page body
+		 * @param hrefs
+		 *            raw href of each link
+		 * @param links
+		 *            links extracted from the page
+		 */
+		private Page(long hash, List<String> hrefs, List<URL> links) {
+			this.hash = hash;
+			this.hrefs = Collections.unmodifiableList(new ArrayList<>(hrefs));
+			this.links = Collections.unmodifiableList(new ArrayList<>(links));
+		}
+
+		/**
+		 * Returns the raw href of each link, as written in the page.
+		 *
+		 * @return unmodifiable list of hrefs, in the same order as the links
+		 */
+		public List<String> getHrefs() {
+			return hrefs;
+		}
+
+		/**
+		 * Returns the links extracted from the page.
+		 *
+		 * @return unmodifiable list of cleaned links
+		 */
+		public List<URL> getLinks() {
+			return links;
+		}
+	}
+}
@@ -0,0 +1,474 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.security.Security;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * An in-process cache of host name lookups. Successful lookups are kept for
+ * the positive time-to-live and failed lookups for the (usually shorter)
+ * negative time-to-live. Lookups may be started early with
+ * {@link #prefetch(String)}, in which case a later call to
+ * {@link #resolve(String)} waits for the lookup already in progress instead
+ * of starting another one.
+ *
+ * <p>
+ * The JDK resolver does not expose the time-to-live of individual DNS
+ * records, so by default the lifetimes come from the same
+ * {@code networkaddress.cache.ttl} and
+ * {@code networkaddress.cache.negative.ttl} security properties the JVM uses
+ * for its own cache.
+ * </p>
+ */
+public class ResolverCache {
+
+	/** Default positive time-to-live in seconds if none is configured. */
+	private static final long DEFAULT_TTL = 30;
+
+	/** Default negative time-to-live in seconds if none is configured. */
+	private static final long DEFAULT_NEGATIVE_TTL = 10;
+
+	/** Maximum number of prefetches queued or running at once. */
+	private static final int MAX_PREFETCHES = 1024;
+
+	/** Number of entries below which expired entries are not swept. */
+	private static final int MIN_SWEEP = 1024;
+
+	/** Threads shared by all caches for prefetching. */
+	private static final ExecutorService PREFETCHER = new ThreadPoolExecutor(4, 4, 0, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<>(MAX_PREFETCHES), task -> {
+				Thread thread = new Thread(task, "ResolverCache-prefetch");
+				thread.setDaemon(true);
+				return thread;
+			});
+
+	/** Threads for lookups whose callers wait with a timeout. */
+	private static final ExecutorService LOOKUPS = Executors.newCachedThreadPool(task -> {
+		Thread thread = new Thread(task, "ResolverCache-lookup");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/** Permits for prefetches, so that prefetches beyond the queue are dropped. */
+	private static final Semaphore PREFETCHES = new Semaphore(MAX_PREFETCHES);
+
+	/** Resolver used on a cache miss. */
+	private final HostResolver resolver;
+
+	/** How long successful lookups are kept, in milliseconds. */
+	private final long ttl;
+
+	/** How long failed lookups are kept, in milliseconds. */
+	private final long negativeTtl;
+
+	/** Current time in milliseconds. */
+	private final LongSupplier clock;
+
+	/** Cached and in-progress lookups by lowercase host name. */
+	private final ConcurrentHashMap<String, Entry> entries;
+
+	/** Number of lookups answered without calling the resolver. */
+	private final AtomicLong hits;
+
+	/** Number of calls to the resolver. */
+	private final AtomicLong misses;
+
+	/** Number of entries at which expired entries are next swept. */
+	private volatile int sweepAt;
+
+	/**
+	 * Initializes a cache using the system resolver and the time-to-live
+	 * configured for the JVM.
+	 */
+	public ResolverCache() {
+		this(HostResolver.SYSTEM, lifetime("networkaddress.cache.ttl", DEFAULT_TTL),
+				lifetime("networkaddress.cache.negative.ttl", DEFAULT_NEGATIVE_TTL));
+	}
+
+	/**
+	 * Initializes a cache with the provided resolver and lifetimes.
+	 *
+	 * @param resolver
+	 *            resolver used on a cache miss
+	 * @param ttl
+	 *            how long successful lookups are kept, in milliseconds
+	 * @param negativeTtl
+	 *            how long failed lookups are kept, in milliseconds
+	 */
+	public ResolverCache(HostResolver resolver, long ttl, long negativeTtl) {
+		this(resolver, ttl, negativeTtl, () -> System.nanoTime() / 1000000);
+	}
+
+	/**
+	 * Initializes a cache with the provided resolver, lifetimes and clock.
+	 *
+	 * @param resolver
+	 *            resolver used on a cache miss
+	 * @param ttl
+	 *            how long successful lookups are kept, in milliseconds
+	 * @param negativeTtl
+	 *            how long failed lookups are kept, in milliseconds
+	 * @param clock
+	 *            returns the current time in milliseconds
+	 */
+	public ResolverCache(HostResolver resolver, long ttl, long negativeTtl, LongSupplier clock) {
+		this.resolver = resolver;
+		this.ttl = ttl;
+		this.negativeTtl = negativeTtl;
+		this.clock = clock;
+		this.entries = new ConcurrentHashMap<>();
+		this.hits = new AtomicLong();
+		this.misses = new AtomicLong();
+		this.sweepAt = MIN_SWEEP;
+	}
+
+	/**
+	 * Returns the addresses of the host, either from the cache or by calling
+	 * the resolver. If a lookup for the host is already in progress, waits
+	 * for that lookup to finish.
+	 *
+	 * @param host
+	 *            host name to resolve
+	 * @return one or more addresses of the host
+	 * @throws UnknownHostException
+	 *             if the host could not be resolved (now or within the negative
+	 *             time-to-live)
+	 */
+	public InetAddress[] resolve(String host) throws UnknownHostException {
+		Entry entry = lookup(host, false, false);
+
+		try {
+			return entry.future.join().clone();
+		}
+		catch (CompletionException e) {
+			if (e.getCause() instanceof UnknownHostException) {
+				throw (UnknownHostException) e.getCause();
+			}
+
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the addresses of the host like {@link #resolve(String)}, but
+	 * waits at most the timeout for the lookup. A new lookup runs on a
+	 * background thread so that the caller can stop waiting; the result is
+	 * still cached when it arrives.
+	 *
+	 * @param host
+	 *            host name to resolve
+	 * @param timeout
+	 *            maximum time to wait in milliseconds, or 0 for no limit
+	 * @return one or more addresses of the host
+	 * @throws UnknownHostException
+	 *             if the host could not be resolved (now or within the negative
+	 *             time-to-live)
+	 * @throws SocketTimeoutException
+	 *             if the lookup did not finish within the timeout
+	 * @throws IOException
+	 *             if interrupted while waiting
+	 */
+	public InetAddress[] resolve(String host, int timeout) throws IOException {
+		if (timeout == 0) {
+			return resolve(host);
+		}
+
+		Entry entry = lookup(host, false, true);
+
+		try {
+			return entry.future.get(timeout, TimeUnit.MILLISECONDS).clone();
+		}
+		catch (TimeoutException e) {
+			throw new SocketTimeoutException("Lookup timed out: " + host);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Lookup interrupted: " + host);
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof UnknownHostException) {
+				throw (UnknownHostException) e.getCause();
+			}
+
+			throw new CompletionException(e.getCause());
+		}
+	}
+
+	/**
+	 * Starts resolving the host in the background unless it is already cached
+	 * or being resolved. Returns immediately. If too many prefetches are
+	 * already waiting, the host is not prefetched and will be resolved when
+	 * first needed instead.
+	 *
+	 * @param host
+	 *            host name to resolve
+	 */
+	public void prefetch(String host) {
+		lookup(host, true, true);
+	}
+
+	/**
+	 * Returns a filter that accepts the same hrefs as the provided filter and
+	 * prefetches the host of every accepted href that names a host other than
+	 * the host of the base url. Passing it to
+	 * {@link LinkParser#listLinks(URL, String, LinkFilter)} resolves the hosts
+	 * found on a page while the rest of the page is parsed.
+	 *
+	 * @param filter
+	 *            filter used to decide which hrefs to keep
+	 * @return filter that also prefetches the hosts of accepted hrefs
+	 */
+	public LinkFilter prefetching(LinkFilter filter) {
+		return (base, html, start, end) -> {
+			if (!filter.accept(base, html, start, end)) {
+				return false;
+			}
+
+			int authority = HrefFilter.authorityStart(html, start, end);
+
+			if (authority >= 0) {
+				int hostStart = HrefFilter.hostStart(html, authority, end);
+				int hostEnd = HrefFilter.hostEnd(html, hostStart, end);
+				String host = base.getHost();
+				int length = hostEnd - hostStart;
+
+				if (length > 0 && (length != host.length() || !host.regionMatches(true, 0, html, hostStart, length))) {
+					prefetch(html.substring(hostStart, hostEnd));
+				}
+			}
+
+			return true;
+		};
+	}
+
+	/**
+	 * Returns the number of lookups answered from the cache, including those
+	 * that waited for a lookup already in progress.
+	 *
+	 * @return number of cache hits
+	 */
+	public long hits() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of times the resolver was called.
+	 *
+	 * @return number of cache misses
+	 */
+	public long misses() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the number of hosts cached or being resolved. Expired lookups
+	 * are removed in batches as new hosts are added, so this may include some
+	 * that have expired.
+	 *
+	 * @return number of cached hosts
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Removes all cached lookups.
+	 */
+	public void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * Returns the cache entry for the host, starting a new lookup if there is
+	 * no entry or the entry has expired.
+	 *
+	 * @param host
+	 *            host name to look up
+	 * @param async
+	 *            whether this is a prefetch, which is neither counted as a
+	 *            hit nor started if too many prefetches are waiting
+	 * @param background
+	 *            whether a new lookup should run on a background thread
+	 * @return entry for the host, or null if a prefetch was dropped
+	 */
+	private Entry lookup(String host, boolean async, boolean background) {
+		String key = host.toLowerCase(Locale.ROOT);
+
+		while (true) {
+			Entry entry = entries.get(key);
+
+			if (entry != null && !entry.isExpired(clock.getAsLong())) {
+				if (!async) {
+					hits.incrementAndGet();
+				}
+
+				return entry;
+			}
+
+			if (async && !PREFETCHES.tryAcquire()) {
+				// too many prefetches waiting, so leave the lookup to resolve
+				return entry;
+			}
+
+			Entry fresh = new Entry();
+			boolean added = entry == null ? entries.putIfAbsent(key, fresh) == null : entries.replace(key, entry, fresh);
+
+			if (!added) {
+				// another thread started a lookup first
+				if (async) {
+					PREFETCHES.release();
+				}
+
+				continue;
+			}
+
+			misses.incrementAndGet();
+
+			if (entry == null) {
+				sweep();
+			}
+
+			if (async) {
+				PREFETCHER.execute(() -> {
+					try {
+						fresh.complete(key);
+					}
+					finally {
+						PREFETCHES.release();
+					}
+				});
+			}
+			else if (background) {
+				LOOKUPS.execute(() -> fresh.complete(key));
+			}
+			else {
+				fresh.complete(key);
+			}
+
+			return fresh;
+		}
+	}
+
+	/**
+	 * Removes expired entries once the number of entries has doubled since the
+	 * last sweep, so that hosts seen only once do not stay in memory forever.
+	 * The cost of each sweep is spread over the entries added before it.
+	 */
+	private void sweep() {
+		if (entries.size() < sweepAt) {
+			return;
+		}
+
+		long now = clock.getAsLong();
+		entries.values().removeIf(entry -> entry.isExpired(now));
+		sweepAt = Math.max(MIN_SWEEP, entries.size() * 2);
+	}
+
+	/**
+	 * Reads a lifetime in seconds from a security property.
+	 *
+	 * @param property
+	 *            name of the security property
+	 * @param fallback
+	 *            lifetime in seconds if the property is not set or invalid
+	 * @return lifetime in milliseconds, where a negative value means forever
+	 */
+	private static long lifetime(String property, long fallback) {
+		long seconds = fallback;
+
+		try {
+			String value = Security.getProperty(property);
+
+			if (value != null) {
+				seconds = Long.parseLong(value.trim());
+			}
+		}
+		catch (NumberFormatException | SecurityException e) {
+			seconds = fallback;
+		}
+
+		return seconds < 0 ? Long.MAX_VALUE : seconds * 1000;
+	}
+
+	/**
+	 * A cached or in-progress lookup.
+	 */
+	private class Entry {
+
+		/** Result of the lookup. */
+		private final CompletableFuture<InetAddress[]> future = new CompletableFuture<>();
+
+		/** When the result expires. Only valid once the lookup is done. */
+		private volatile long expires = Long.MAX_VALUE;
+
+		/**
+		 * Calls the resolver and stores the result. Any failure is stored as
+		 * an {@link UnknownHostException} (with the original failure as its
+		 * cause), so callers only ever see the checked exception.
+		 *
+		 * @param host
+		 *            host name to resolve
+		 */
+		private void complete(String host) {
+			try {
+				InetAddress[] addresses = resolver.resolve(host);
+
+				if (addresses == null || addresses.length == 0) {
+					throw new UnknownHostException(host);
+				}
+
+				expires = expiration(ttl);
+				future.complete(addresses);
+			}
+			catch (UnknownHostException e) {
+				expires = expiration(negativeTtl);
+				future.completeExceptionally(e);
+			}
+			catch (RuntimeException e) {
+				UnknownHostException wrapped = new UnknownHostException(host);
+				wrapped.initCause(e);
+				expires = expiration(negativeTtl);
+				future.completeExceptionally(wrapped);
+			}
+		}
+
+		/**
+		 * Returns when a result kept for the given lifetime expires.
+		 *
+		 * @param lifetime
+		 *            how long to keep the result, in milliseconds
+		 * @return expiration time
+		 */
+		private long expiration(long lifetime) {
+			long now = clock.getAsLong();
+			return lifetime > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + lifetime;
+		}
+
+		/**
+		 * Tests whether the lookup is done and its result has expired.
+		 *
+		 * @param now
+		 *            current time
+		 * @return true if the entry should be replaced
+		 */
+		private boolean isExpired(long now) {
+			return future.isDone() && now >= expires;
+		}
+	}
+}
@@ -0,0 +1,340 @@
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Fetches, caches and checks the robots.txt rules of each host. The file is
+ * fetched through {@link LinkParser#fetch(URL, FetchLimits)} the first time a
+ * host is checked, compiled into {@link RobotsRules}, and kept until its
+ * lifetime ends. The lifetime comes from the {@code max-age} of the
+ * {@code Cache-Control} header if there is one.
+ *
+ * <p>
+ * Following RFC 9309, up to five redirects are followed, a missing file
+ * (status 4xx) allows everything, and a server error or unreachable host
+ * disallows everything until the (shorter) error lifetime ends.
+ * </p>
+ *
+ * <p>
+ * The cache is also a {@link LinkFilter}, so robots rules can be checked on
+ * the raw href before links enter the frontier, for example with
+ * {@code new HrefFilter().allowHost("usfca.edu").and(robots)}.
+ * </p>
+ */
+public class RobotsCache implements LinkFilter {
+
+	/** Default product token of the crawler. */
+	public static final String DEFAULT_AGENT = "LinkParser";
+
+	/** Default lifetime of fetched rules, in milliseconds (one day). */
+	public static final long DEFAULT_LIFETIME = 24 * 60 * 60 * 1000L;
+
+	/** Default lifetime after a server error, in milliseconds (five minutes). */
+	public static final long DEFAULT_ERROR_LIFETIME = 5 * 60 * 1000L;
+
+	/** Maximum number of redirects to follow. */
+	private static final int MAX_REDIRECTS = 5;
+
+	/** Product token used to pick the group of rules. */
+	private final String agent;
+
+	/** Limits used when fetching robots.txt files. */
+	private final FetchLimits limits;
+
+	/** How long fetched rules are kept, in milliseconds. */
+	private final long lifetime;
+
+	/** How long rules are kept after a server error, in milliseconds. */
+	private final long errorLifetime;
+
+	/** Current time in milliseconds. */
+	private final LongSupplier clock;
+
+	/** Cached and in-progress rules by origin. */
+	private final ConcurrentHashMap<String, Entry> entries;
+
+	/** Number of robots.txt files fetched (including failed fetches). */
+	private final AtomicLong fetches;
+
+	/**
+	 * Initializes a cache with the default agent and lifetimes, fetching up to
+	 * 500 KB per file within 10 seconds.
+	 */
+	public RobotsCache() {
+		this(DEFAULT_AGENT, new FetchLimits().connectTimeout(5000).totalTimeout(10000).maxBytes(512000, true));
+	}
+
+	/**
+	 * Initializes a cache with the default lifetimes.
+	 *
+	 * @param agent
+	 *            product token of the crawler
+	 * @param limits
+	 *            limits used when fetching robots.txt files
+	 */
+	public RobotsCache(String agent, FetchLimits limits) {
+		this(agent, limits, DEFAULT_LIFETIME, DEFAULT_ERROR_LIFETIME, () -> System.nanoTime() / 1000000);
+	}
+
+	/**
+	 * Initializes a cache.
+	 *
+	 * @param agent
+	 *            product token of the crawler
+	 * @param limits
+	 *            limits used when fetching robots.txt files
+	 * @param lifetime
+	 *            how long fetched rules are kept without a {@code max-age}, in
+	 *            milliseconds
+	 * @param errorLifetime
+	 *            how long rules are kept after a server error, in milliseconds
+	 * @param clock
+	 *            returns the current time in milliseconds
+	 */
+	public RobotsCache(String agent, FetchLimits limits, long lifetime, long errorLifetime, LongSupplier clock) {
+		this.agent = agent;
+		this.limits = limits;
+		this.lifetime = lifetime;
+		this.errorLifetime = errorLifetime;
+		this.clock = clock;
+		this.entries = new ConcurrentHashMap<>();
+		this.fetches = new AtomicLong();
+	}
+
+	/**
+	 * Tests whether the url may be crawled.
+	 *
+	 * @param url
+	 *            url to check
+	 * @return true if allowed by the robots.txt rules of its host
+	 */
+	public boolean isAllowed(URL url) {
+		String path = url.getPath();
+
+		if (HrefFilter.hasDotSegment(path, 0, path.length())) {
+			// the server will remove these, so the rules must see the same path
+			path = HrefFilter.removeDotSegments(path);
+		}
+
+		path = path.isEmpty() ? "/" : path;
+		return getRules(url).isAllowed(url.getQuery() == null ? path : path + "?" + url.getQuery());
+	}
+
+	@Override
+	public boolean accept(URL base, String html, int start, int end) {
+		return accept(base, (CharSequence) html, start, end);
+	}
+
+	/**
+	 * Tests the href the same way as {@link #accept(URL, String, int, int)},
+	 * reading the html only through {@link CharSequence#charAt(int)} and
+	 * only between {@code start} and {@code end}.
+	 *
+	 * @param base
+	 *            base url the href will be resolved against
+	 * @param html
+	 *            raw html containing the href value
+	 * @param start
+	 *            index of the first character of the href value
+	 * @param end
+	 *            index after the last character of the href value
+	 * @return true if the link may be crawled
+	 */
+	boolean accept(URL base, CharSequence html, int start, int end) {
+		if (!HrefFilter.isHttp(base, html, start, end)) {
+			return false;
+		}
+
+		int pathStart = HrefFilter.pathStart(html, start, end);
+		int pathEnd = HrefFilter.indexOf(html, pathStart, end, HrefFilter.PATH_END);
+		boolean local = HrefFilter.authorityStart(html, start, end) < 0;
+
+		if (!local || HrefFilter.hasDotSegment(html, pathStart, pathEnd)) {
+			// other hosts and dot segments are checked on the resolved and normalized url
+			try {
+				return isAllowed(new URL(base, html.subSequence(start, end).toString()));
+			}
+			catch (MalformedURLException e) {
+				return false;
+			}
+		}
+
+		String directory = HrefFilter.directory(base, html, start, end, pathStart, pathEnd);
+		int directoryEnd = HrefFilter.directoryEnd(directory, pathStart, pathEnd);
+
+		if (HrefFilter.hasDotSegment(directory, 0, directoryEnd)) {
+			// a base path with dot segments is checked on the resolved url
+			try {
+				return isAllowed(new URL(base, html.subSequence(start, end).toString()));
+			}
+			catch (MalformedURLException e) {
+				return false;
+			}
+		}
+
+		int queryEnd = HrefFilter.indexOf(html, pathStart, end, '#');
+		return getRules(base).isAllowed(directory, directoryEnd, html, pathStart, queryEnd);
+	}
+
+	/**
+	 * Returns the rules for the host of the url, fetching them if they are
+	 * not cached or have expired. If the rules are already being fetched by
+	 * another thread, waits for that fetch.
+	 *
+	 * @param url
+	 *            any url on the host
+	 * @return rules for the host
+	 */
+	public RobotsRules getRules(URL url) {
+		int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+		String origin = url.getProtocol() + "://" + url.getHost().toLowerCase(Locale.ROOT) + ":" + port;
+
+		while (true) {
+			Entry entry = entries.get(origin);
+
+			if (entry != null && !entry.isExpired(clock.getAsLong())) {
+				return entry.future.join();
+			}
+
+			Entry fresh = new Entry();
+			boolean added = entry == null ? entries.putIfAbsent(origin, fresh) == null
+					: entries.replace(origin, entry, fresh);
+
+			if (added) {
+				fresh.complete(url.getProtocol(), url.getHost(), port);
+				return fresh.future.join();
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of robots.txt files fetched, including failed
+	 * fetches and redirects.
+	 *
+	 * @return number of fetches
+	 */
+	public long getFetches() {
+		return fetches.get();
+	}
+
+	/**
+	 * Removes all cached rules.
+	 */
+	public void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * Returns the {@code max-age} of the {@code Cache-Control} header.
+	 *
+	 * @param response
+	 *            response to check
+	 * @return lifetime in milliseconds, or -1 if there is none
+	 */
+	private static long maxAge(HTTPResponse response) {
+		String control = response.getHeader("Cache-Control");
+
+		if (control != null) {
+			for (String directive : control.split(",")) {
+				String[] parts = directive.trim().split("=", 2);
+
+				if (parts.length == 2 && parts[0].trim().equalsIgnoreCase("max-age")) {
+					try {
+						return Math.max(0, Long.parseLong(parts[1].trim().replace("\"", ""))) * 1000;
+					}
+					catch (NumberFormatException e) {
+						return -1;
+					}
+				}
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Cached or in-progress rules for one host.
+	 */
+	private class Entry {
+
+		/** Rules of the host. */
+		private final CompletableFuture<RobotsRules> future = new CompletableFuture<>();
+
+		/** When the rules expire. Only valid once the fetch is done. */
+		private volatile long expires = Long.MAX_VALUE;
+
+		/**
+		 * Fetches the robots.txt file of the host and stores the rules.
+		 *
+		 * @param protocol
+		 *            protocol of the host
+		 * @param host
+		 *            name of the host
+		 * @param port
+		 *            port of the host
+		 */
+		private void complete(String protocol, String host, int port) {
+			RobotsRules rules;
+			long keep = lifetime;
+
+			try {
+				URL url = new URL(protocol, host, port, "/robots.txt");
+				HTTPResponse response = null;
+
+				for (int i = 0; i <= MAX_REDIRECTS; i++) {
+					fetches.incrementAndGet();
+					response = LinkParser.fetch(url, limits);
+
+					String location = response.getHeader("Location");
+					int status = response.getStatus();
+
+					if (status < 300 || status >= 400 || location == null) {
+						break;
+					}
+
+					url = new URL(url, location);
+				}
+
+				int status = response.getStatus();
+
+				if (status >= 200 && status < 300) {
+					rules = RobotsRules.parse(response.getText(), agent);
+					long age = maxAge(response);
+					keep = age < 0 ? lifetime : age;
+				}
+				else if (status >= 500) {
+					rules = RobotsRules.DISALLOW_ALL;
+					keep = errorLifetime;
+				}
+				else {
+					// missing, forbidden, or too many redirects
+					rules = RobotsRules.ALLOW_ALL;
+				}
+			}
+			catch (IOException | RuntimeException e) {
+				rules = RobotsRules.DISALLOW_ALL;
+				keep = errorLifetime;
+			}
+
+			long now = clock.getAsLong();
+			expires = keep > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + keep;
+			future.complete(rules);
+		}
+
+		/**
+		 * Tests whether the fetch is done and its rules have expired.
+		 *
+		 * @param now
+		 *            current time
+		 * @return true if the entry should be replaced
+		 */
+		private boolean isExpired(long now) {
+			return future.isDone() && now >= expires;
+		}
+	}
+}
@@ -0,0 +1,462 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The Allow and Disallow rules of a robots.txt file that apply to one user
+ * agent, compiled so that checking a path takes time proportional to the
+ * length of the path.
+ *
+ * <p>
+ * The patterns are stored in a character trie where {@code *} is a special
+ * edge that matches any sequence, and {@code $} marks a pattern that must
+ * match to the end of the path. Matching runs all trie nodes that are still
+ * possible in parallel, and each distinct set of nodes is turned into a state
+ * of a deterministic automaton the first time it is reached, so later checks
+ * follow one cached transition per character.
+ * </p>
+ *
+ * <p>
+ * As in RFC 9309, the longest matching pattern decides, Allow wins a tie, and
+ * a path that matches no pattern is allowed. Paths are compared as given,
+ * which for cleaned urls means percent-encoded. Instances are safe to share
+ * between threads.
+ * </p>
+ */
+public class RobotsRules {
+
+	/** Rules that allow every path. */
+	public static final RobotsRules ALLOW_ALL = new RobotsRules(Collections.<String>emptyList(),
+			Collections.<String>emptyList());
+
+	/** Rules that disallow every path. */
+	public static final RobotsRules DISALLOW_ALL = new RobotsRules(Collections.<String>emptyList(),
+			Collections.singletonList("/"));
+
+	/** Maximum number of automaton states to cache per file. */
+	private static final int MAX_STATES = 4096;
+
+	/** Encoded match when no pattern matched. */
+	private static final int NONE = -1;
+
+	/** Trie nodes by id. */
+	private final ArrayList<Node> nodes;
+
+	/** Automaton states by their sorted node ids. */
+	private final ConcurrentHashMap<String, State> states;
+
+	/** Automaton state before any character is read. */
+	private final State initial;
+
+	/** Number of patterns compiled. */
+	private final int patterns;
+
+	/**
+	 * Compiles the provided patterns.
+	 *
+	 * @param allow
+	 *            patterns of the Allow rules
+	 * @param disallow
+	 *            patterns of the Disallow rules
+	 */
+	public RobotsRules(Iterable<String> allow, Iterable<String> disallow) {
+		this.nodes = new ArrayList<>();
+		this.states = new ConcurrentHashMap<>();
+
+		Node root = new Node(0);
+		nodes.add(root);
+
+		int count = 0;
+
+		for (String pattern : allow) {
+			count += add(root, pattern, true) ? 1 : 0;
+		}
+
+		for (String pattern : disallow) {
+			count += add(root, pattern, false) ? 1 : 0;
+		}
+
+		this.patterns = count;
+
+		TreeSet<Integer> ids = new TreeSet<>();
+		closure(root, ids);
+		this.initial = state(ids);
+	}
+
+	/**
+	 * Parses a robots.txt file and compiles the rules of the groups that apply
+	 * to the user agent. Groups naming the agent (ignoring case) are used if
+	 * there are any, and otherwise the groups for {@code *}.
+	 *
+	 * @param text
+	 *            contents of the robots.txt file
+	 * @param agent
+	 *            product token of the crawler, such as {@code LinkParser}
+	 * @return compiled rules for the agent
+	 */
+	public static RobotsRules parse(String text, String agent) {
+		ArrayList<String> agentAllow = new ArrayList<>();
+		ArrayList<String> agentDisallow = new ArrayList<>();
+		ArrayList<String> anyAllow = new ArrayList<>();
+		ArrayList<String> anyDisallow = new ArrayList<>();
+
+		boolean matchesAgent = false;
+		boolean matchesAny = false;
+		boolean inRules = false;
+		boolean foundAgent = false;
+
+		for (String line : text.split("\r\n|\r|\n")) {
+			int comment = line.indexOf('#');
+			line = comment < 0 ? line : line.substring(0, comment);
+
+			int colon = line.indexOf(':');
+
+			if (colon < 0) {
+				continue;
+			}
+
+			String key = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+			String value = line.substring(colon + 1).trim();
+
+			if (key.equals("user-agent")) {
+				if (inRules) {
+					// a user-agent line after rules starts a new group
+					matchesAgent = false;
+					matchesAny = false;
+					inRules = false;
+				}
+
+				if (value.equalsIgnoreCase(agent)) {
+					matchesAgent = true;
+					foundAgent = true;
+				}
+				else if (value.equals("*")) {
+					matchesAny = true;
+				}
+			}
+			else if (key.equals("allow") || key.equals("disallow")) {
+				inRules = true;
+				boolean allow = key.equals("allow");
+
+				if (matchesAgent) {
+					(allow ? agentAllow : agentDisallow).add(value);
+				}
+
+				if (matchesAny) {
+					(allow ? anyAllow : anyDisallow).add(value);
+				}
+			}
+		}
+
+		return foundAgent ? new RobotsRules(agentAllow, agentDisallow) : new RobotsRules(anyAllow, anyDisallow);
+	}
+
+	/**
+	 * Returns the number of patterns compiled into these rules.
+	 *
+	 * @return number of patterns
+	 */
+	public int size() {
+		return patterns;
+	}
+
+	/**
+	 * Tests whether the path (including any query) may be crawled.
+	 *
+	 * @param path
+	 *            path and query of a url, starting with a slash
+	 * @return true if allowed
+	 */
+	public boolean isAllowed(String path) {
+		return isAllowed("", 0, path, 0, path.length());
+	}
+
+	/**
+	 * Tests whether the path formed by a prefix followed by a region of text
+	 * may be crawled. This allows checking a relative href against the
+	 * directory of its base url without building the resolved path.
+	 *
+	 * @param prefix
+	 *            text containing the start of the path
+	 * @param prefixEnd
+	 *            number of characters of the prefix to use
+	 * @param text
+	 *            text containing the rest of the path
+	 * @param start
+	 *            index of the first character of the rest of the path
+	 * @param end
+	 *            index after the last character of the rest of the path
+	 * @return true if allowed
+	 */
+	public boolean isAllowed(CharSequence prefix, int prefixEnd, CharSequence text, int start, int end) {
+		State state = initial;
+		int best = state.prefixMatch;
+		int length = prefixEnd + end - start;
+
+		for (int i = 0; i < length && !state.isDead(); i++) {
+			char c = i < prefixEnd ? prefix.charAt(i) : text.charAt(start + i - prefixEnd);
+			state = next(state, c);
+			best = Math.max(best, state.prefixMatch);
+		}
+
+		best = Math.max(best, state.endMatch);
+		return best == NONE || (best & 1) == 1;
+	}
+
+	/**
+	 * Encodes a matched rule so that the larger value wins: a longer pattern
+	 * wins, and Allow wins a tie.
+	 *
+	 * @param length
+	 *            length of the pattern
+	 * @param allow
+	 *            whether the rule is an Allow rule
+	 * @return encoded match
+	 */
+	private static int match(int length, boolean allow) {
+		return length * 2 + (allow ? 1 : 0);
+	}
+
+	/**
+	 * Adds a pattern to the trie. Patterns that are empty or do not start with
+	 * a slash or wildcard are ignored, and repeated wildcards are collapsed.
+	 *
+	 * @param root
+	 *            root of the trie
+	 * @param pattern
+	 *            pattern to add
+	 * @param allow
+	 *            whether the pattern is from an Allow rule
+	 * @return true if the pattern was added
+	 */
+	private boolean add(Node root, String pattern, boolean allow) {
+		if (pattern.isEmpty() || (pattern.charAt(0) != '/' && pattern.charAt(0) != '*')) {
+			return false;
+		}
+
+		Node node = root;
+		boolean anchored = false;
+
+		for (int i = 0; i < pattern.length(); i++) {
+			char c = pattern.charAt(i);
+
+			if (c == '$' && i == pattern.length() - 1) {
+				anchored = true;
+			}
+			else if (c == '*') {
+				if (node.star == null) {
+					node.star = new Node(nodes.size());
+					node.star.wildcard = true;
+					nodes.add(node.star);
+				}
+
+				node = node.star;
+
+				while (i + 1 < pattern.length() && pattern.charAt(i + 1) == '*') {
+					i++;
+				}
+			}
+			else {
+				Node child = node.children.get(c);
+
+				if (child == null) {
+					child = new Node(nodes.size());
+					node.children.put(c, child);
+					nodes.add(child);
+				}
+
+				node = child;
+			}
+		}
+
+		int match = match(pattern.length(), allow);
+
+		if (anchored) {
+			node.endMatch = Math.max(node.endMatch, match);
+		}
+		else {
+			node.prefixMatch = Math.max(node.prefixMatch, match);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Adds the node and every node reachable from it through wildcards that
+	 * match nothing.
+	 *
+	 * @param node
+	 *            node to add
+	 * @param ids
+	 *            set of node ids to add to
+	 */
+	private static void closure(Node node, TreeSet<Integer> ids) {
+		while (node != null && ids.add(node.id)) {
+			node = node.star;
+		}
+	}
+
+	/**
+	 * Returns the automaton state after reading a character, computing and
+	 * caching it if this transition has not been taken before.
+	 *
+	 * @param state
+	 *            current state
+	 * @param c
+	 *            character read
+	 * @return next state
+	 */
+	private State next(State state, char c) {
+		State next = c < 128 ? state.ascii[c] : state.other.get(c);
+
+		if (next != null) {
+			return next;
+		}
+
+		TreeSet<Integer> ids = new TreeSet<>();
+
+		for (int id : state.ids) {
+			Node node = nodes.get(id);
+
+			if (node.wildcard) {
+				closure(node, ids);
+			}
+
+			closure(node.children.get(c), ids);
+		}
+
+		next = state(ids);
+
+		if (states.size() < MAX_STATES) {
+			if (c < 128) {
+				state.ascii[c] = next;
+			}
+			else {
+				state.other.put(c, next);
+			}
+		}
+
+		return next;
+	}
+
+	/**
+	 * Returns the automaton state for a set of trie nodes.
+	 *
+	 * @param ids
+	 *            ids of the trie nodes
+	 * @return shared state for the set
+	 */
+	private State state(TreeSet<Integer> ids) {
+		int[] array = new int[ids.size()];
+		int i = 0;
+
+		for (int id : ids) {
+			array[i++] = id;
+		}
+
+		String key = Arrays.toString(array);
+		State state = states.get(key);
+
+		if (state == null) {
+			state = new State(array);
+
+			if (states.size() < MAX_STATES) {
+				State existing = states.putIfAbsent(key, state);
+				state = existing == null ? state : existing;
+			}
+		}
+
+		return state;
+	}
+
+	/**
+	 * A trie node for one position in one or more patterns.
+	 */
+	private static class Node {
+
+		/** Index of the node. */
+		private final int id;
+
+		/** Children by character. */
+		private final HashMap<Character, Node> children = new HashMap<>();
+
+		/** Child reached through a wildcard, or null. */
+		private Node star;
+
+		/** Whether this node is reached through a wildcard and matches any character. */
+		private boolean wildcard;
+
+		/** Best rule for a pattern that ends here and matches any rest of the path. */
+		private int prefixMatch = NONE;
+
+		/** Best rule for a pattern that ends here with {@code $}. */
+		private int endMatch = NONE;
+
+		/**
+		 * Initializes a node.
+		 *
+		 * @param id
+		 *            index of the node
+		 */
+		private Node(int id) {
+			this.id = id;
+		}
+	}
+
+	/**
+	 * An automaton state, which is a set of trie nodes that all match the
+	 * characters read so far.
+	 */
+	private class State {
+
+		/** Sorted ids of the trie nodes. */
+		private final int[] ids;
+
+		/** Cached transitions for ASCII characters. */
+		private final State[] ascii = new State[128];
+
+		/** Cached transitions for other characters. */
+		private final ConcurrentHashMap<Character, State> other = new ConcurrentHashMap<>();
+
+		/** Best rule matched as soon as this state is reached. */
+		private final int prefixMatch;
+
+		/** Best rule matched if the path ends in this state. */
+		private final int endMatch;
+
+		/**
+		 * Initializes a state.
+		 *
+		 * @param ids
+		 *            sorted ids of the trie nodes
+		 */
+		private State(int[] ids) {
+			this.ids = ids;
+
+			int prefix = NONE;
+			int end = NONE;
+
+			for (int id : ids) {
+				Node node = nodes.get(id);
+				prefix = Math.max(prefix, node.prefixMatch);
+				end = Math.max(end, node.endMatch);
+			}
+
+			this.prefixMatch = prefix;
+			this.endMatch = end;
+		}
+
+		/**
+		 * Tests whether no pattern can match anymore.
+		 *
+		 * @return true if the state has no nodes
+		 */
+		private boolean isDead() {
+			return ids.length == 0;
+		}
+	}
+}
@@ -0,0 +1,101 @@
+/**
+ * Wraps a string and counts the characters read from it, so tests can check
+ * how much of a page a {@link LinkFilter} reads for each href without relying
+ * on timing. Reads outside of the current window are counted separately.
+ */
+public class CountingText implements CharSequence {
+
+	/** Wrapped text. */
+	private final String text;
+
+	/** Index of the first character of the window. */
+	private int start;
+
+	/** Index after the last character of the window. */
+	private int end;
+
+	/** Number of characters read inside the window. */
+	private long reads;
+
+	/** Number of characters read outside the window. */
+	private long outside;
+
+	/**
+	 * Initializes the wrapper with a window covering the whole text.
+	 *
+	 * @param text
+	 *            text to wrap
+	 */
+	public CountingText(String text) {
+		this.text = text;
+		this.start = 0;
+		this.end = text.length();
+	}
+
+	/**
+	 * Sets the window reads are expected to stay within.
+	 *
+	 * @param start
+	 *            index of the first character of the window
+	 * @param end
+	 *            index after the last character of the window
+	 * @return this text
+	 */
+	public CountingText window(int start, int end) {
+		this.start = start;
+		this.end = end;
+		return this;
+	}
+
+	/**
+	 * Returns the number of characters read inside the window.
+	 *
+	 * @return number of reads
+	 */
+	public long getReads() {
+		return reads;
+	}
+
+	/**
+	 * Returns the number of characters read outside the window.
+	 *
+	 * @return number of reads
+	 */
+	public long getOutside() {
+		return outside;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if (index >= start && index < end) {
+			reads++;
+		}
+		else {
+			outside++;
+		}
+
+		return text.charAt(index);
+	}
+
+	@Override
+	public int length() {
+		return text.length();
+	}
+
+	@Override
+	public CharSequence subSequence(int from, int to) {
+		if (from >= start && to <= end) {
+			reads += to - from;
+		}
+		else {
+			outside += to - from;
+		}
+
+		return text.subSequence(from, to);
+	}
+
+	@Override
+	public String toString() {
+		return text;
+	}
+}
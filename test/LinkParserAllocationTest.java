@@ -0,0 +1,231 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * Measures how many bytes the hot paths of {@link LinkParser} allocate per
+ * call on fixed fixture pages, and fails if any path goes over its budget.
+ * Allocations are counted for the calling thread only using the allocated
+ * bytes counter of the HotSpot {@code ThreadMXBean}, so work done by server
+ * threads is not included. A table of the results is printed after the tests.
+ *
+ * <p>
+ * The budgets are about three times the allocation measured on Java 17 when
+ * they were committed, which leaves room for JVMs without compact strings.
+ * If a change legitimately needs more, update the budget in the same commit
+ * and say why.
+ * </p>
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class LinkParserAllocationTest {
+
+	/** Number of calls before measuring, so the JIT has compiled the code. */
+	private static final int WARMUP = 5000;
+
+	/** Number of calls to measure. */
+	private static final int ITERATIONS = 2000;
+
+	/** Number of calls to measure for paths that use the network stack. */
+	private static final int FETCH_ITERATIONS = 200;
+
+	/** Bytes per call for {@link LinkParser#clean(URL)} (measured 1,352). */
+	private static final long CLEAN_BUDGET = 4000;
+
+	/** Bytes per call for listLinks on the snippet (measured 3,272). */
+	private static final long SNIPPET_BUDGET = 10000;
+
+	/** Bytes per call for listLinks on the page (measured 143,320). */
+	private static final long PAGE_BUDGET = 430000;
+
+	/** Bytes per call for listLinks when every href is rejected (measured 48). */
+	private static final long REJECTED_BUDGET = 150;
+
+	/** Bytes per call for fetchHTML of the page (measured 66,176). */
+	private static final long FETCH_BUDGET = 200000;
+
+	/** Rows of the report, by test name. */
+	private static final Map<String, String> REPORT = new TreeMap<>();
+
+	/** Counts the bytes allocated by each thread. */
+	private static com.sun.management.ThreadMXBean threads;
+
+	/** Serves the fetch fixture. */
+	private static LocalHTTPServer server;
+
+	/** Fixture with a few links, from {@code LinkParserTest.MultipleLinkTest}. */
+	private static final String SNIPPET = "<h1><a name=\"about\">About</a></h1>\n"
+			+ "<p>The <a class=\"primary\" href=\"index.html\">Department of "
+			+ "Computer Science</a> offers an undergraduate and graduate degree at "
+			+ "<a href=\"http://www.usfca.edu\">University of San Francisco</a>.</p>\n"
+			+ "<p>Find out more about those degrees at <a href=\"https://www.usfca.edu/"
+			+ "catalog/undergraduate/arts-sciences/computer-science\">https://www.usfca.edu/"
+			+ "catalog/undergraduate/arts-sciences/computer-science</a>.</p>";
+
+	/** Fixture modeled after the numpy documentation pages. */
+	private static final String PAGE = page(100);
+
+	@BeforeClass
+	public static void setup() throws IOException {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue("Allocated bytes are not supported by this JVM",
+				bean instanceof com.sun.management.ThreadMXBean);
+
+		threads = (com.sun.management.ThreadMXBean) bean;
+		Assume.assumeTrue("Allocated bytes are not supported by this JVM",
+				threads.isThreadAllocatedMemorySupported());
+		threads.setThreadAllocatedMemoryEnabled(true);
+
+		server = new LocalHTTPServer();
+		server.addPage("/index.html", "text/html; charset=utf-8", PAGE);
+	}
+
+	@AfterClass
+	public static void report() throws IOException {
+		if (server != null) {
+			server.close();
+		}
+
+		StringBuilder table = new StringBuilder();
+		table.append(String.format("%n%-20s %10s %12s %12s  %s%n", "Path", "Calls", "Bytes/Call", "Budget", "Status"));
+
+		for (String row : REPORT.values()) {
+			table.append(row).append(System.lineSeparator());
+		}
+
+		System.out.println(table);
+	}
+
+	@Test
+	public void test01Clean() throws MalformedURLException {
+		URL url = new URL("http://docs.python.org/library/string.html?highlight=string#module-string");
+		check("clean", CLEAN_BUDGET, ITERATIONS, () -> LinkParser.clean(url));
+	}
+
+	@Test
+	public void test02ListLinksSnippet() throws MalformedURLException {
+		URL base = new URL("http://www.cs.usfca.edu/");
+		check("listLinks snippet", SNIPPET_BUDGET, ITERATIONS, () -> LinkParser.listLinks(base, SNIPPET));
+	}
+
+	@Test
+	public void test03ListLinksPage() throws MalformedURLException {
+		URL base = new URL("http://www.example.com/numpy/user/index.html");
+		check("listLinks page", PAGE_BUDGET, ITERATIONS, () -> LinkParser.listLinks(base, PAGE));
+	}
+
+	@Test
+	public void test04ListLinksRejected() throws MalformedURLException {
+		// every href is rejected by the filter, so only the result list is allocated
+		URL base = new URL("http://www.example.com/numpy/user/index.html");
+		HrefFilter filter = new HrefFilter().allowHost("usfca.edu");
+		check("listLinks rejected", REJECTED_BUDGET, ITERATIONS, () -> LinkParser.listLinks(base, PAGE, filter));
+	}
+
+	@Test
+	public void test05FetchHTML() throws MalformedURLException {
+		URL url = server.getURL("/index.html");
+		Assert.assertEquals(PAGE, LinkParser.fetchHTML(url));
+		check("fetchHTML", FETCH_BUDGET, FETCH_ITERATIONS, () -> LinkParser.fetchHTML(url));
+	}
+
+	/**
+	 * Measures the bytes allocated per call, adds a row to the report, and
+	 * fails if the budget was exceeded.
+	 *
+	 * @param name
+	 *            name of the path being measured
+	 * @param budget
+	 *            maximum bytes per call
+	 * @param iterations
+	 *            number of calls to measure
+	 * @param call
+	 *            call to measure
+	 */
+	private static void check(String name, long budget, int iterations, Runnable call) {
+		long bytes = measure(call, iterations);
+		boolean passed = bytes <= budget;
+
+		REPORT.put(String.format("%02d", REPORT.size()), String.format("%-20s %10d %12d %12d  %s", name, iterations,
+				bytes, budget, passed ? "OK" : "OVER BUDGET"));
+
+		Assert.assertTrue(String.format("%s allocated %d bytes per call (budget %d)", name, bytes, budget), passed);
+	}
+
+	/**
+	 * Returns the average bytes allocated by the current thread per call,
+	 * excluding the overhead of reading the counter itself.
+	 *
+	 * @param call
+	 *            call to measure
+	 * @param iterations
+	 *            number of calls to measure
+	 * @return bytes allocated per call
+	 */
+	private static long measure(Runnable call, int iterations) {
+		long id = Thread.currentThread().getId();
+
+		for (int i = 0; i < Math.min(WARMUP, iterations * 10); i++) {
+			call.run();
+		}
+
+		long overhead = threads.getThreadAllocatedBytes(id);
+		overhead = threads.getThreadAllocatedBytes(id) - overhead;
+
+		long before = threads.getThreadAllocatedBytes(id);
+
+		for (int i = 0; i < iterations; i++) {
+			call.run();
+		}
+
+		long after = threads.getThreadAllocatedBytes(id);
+		return Math.max(0, after - before - overhead) / iterations;
+	}
+
+	/**
+	 * Generates a fixture page that mixes relative and absolute links, case
+	 * and whitespace variations, a mailto link and decoy {@code link} tags.
+	 *
+	 * @param links
+	 *            number of rows, each with one or two anchor tags
+	 * @return html of the page
+	 */
+	private static String page(int links) {
+		StringBuilder html = new StringBuilder();
+		html.append("<!DOCTYPE html>\n<html>\n<head>\n<title>Numpy User Guide</title>\n");
+		html.append("<link rel=\"stylesheet\" href=\"../_static/scipy.css\" type=\"text/css\" />\n");
+		html.append("<link rel=\"index\" title=\"Index\" href=\"../genindex.html\" />\n</head>\n<body>\n");
+
+		for (int i = 0; i < links; i++) {
+			switch (i % 4) {
+			case 0:
+				html.append(String.format("<p>Section %d of the guide. <a class=\"reference internal\" "
+						+ "href=\"section%d.html#overview\">Overview</a></p>%n", i, i));
+				break;
+			case 1:
+				html.append(String.format("<li><A HREF=\"../reference/routine%d.html\">Routine %d</A></li>%n", i, i));
+				break;
+			case 2:
+				html.append(String.format("<a name=\"anchor%d\" title=\"Link\"%n href = \"http://www.scipy.org/page%d"
+						+ "?q=numpy+array&amp;page=%d\">SciPy</a>%n", i, i, i));
+				break;
+			default:
+				html.append(String.format("<a href=\"mailto:numpy-%d@scipy.org\">Mail</a> "
+						+ "<a href=\"https://docs.scipy.org/doc/numpy/user/%d.html\">Docs</a>%n", i, i));
+				break;
+			}
+		}
+
+		return html.append("</body>\n</html>\n").toString();
+	}
+}
@@ -1,12 +1,29 @@
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
 import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.junit.Assert;
 import org.junit.FixMethodOrder;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.experimental.runners.Enclosed;
 import org.junit.runner.RunWith;
 import org.junit.runners.MethodSorters;
@@ -173,6 +190,1036 @@ public class LinkParserTest {
 		}
 	}
 
+	@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+	public static class LinkFilterTests {
+
+		public void testFiltered(LinkFilter filter, String html, String... links) throws MalformedURLException {
+			URL base = new URL("http://www.cs.usfca.edu/~sjengle/cs212/");
+			ArrayList<URL> expected = new ArrayList<>();
+
+			for (String link : links) {
+				expected.add(new URL(link));
+			}
+
+			ArrayList<URL> actual = LinkParser.listLinks(base, html, filter);
+
+			String debug = String.format("%nHTML:%n%s%n%n", html);
+			Assert.assertEquals(debug, expected, actual);
+		}
+
+		@Test
+		public void test01Schemes() throws MalformedURLException {
+			String html = "<a href=\"mailto:sjengle@usfca.edu\"> <a href=\" javascript:alert(1)\"> "
+					+ "<a href=\"ftp://ftp.usfca.edu/\"> <a href=\"HTTPS://www.usfca.edu/\"> <a href=\"index.html\">";
+			testFiltered(LinkFilter.HTTP, html, "https://www.usfca.edu/",
+					"http://www.cs.usfca.edu/~sjengle/cs212/index.html");
+		}
+
+		@Test
+		public void test02AllowHost() throws MalformedURLException {
+			String html = "<a href=\"http://www.usfca.edu/\"> <a href=\"http://notusfca.edu/\"> "
+					+ "<a href=\"//user@USFCA.EDU:8080/\"> <a href=\"http://www.example.com/\">";
+			HrefFilter filter = new HrefFilter().allowHost("usfca.edu");
+			testFiltered(filter, html, "http://www.usfca.edu/", "http://user@usfca.edu:8080/");
+		}
+
+		@Test
+		public void test03DenyHost() throws MalformedURLException {
+			String html = "<a href=\"http://www.usfca.edu/\"> <a href=\"http://cs.usfca.edu/\"> "
+					+ "<a href=\"index.html\">";
+			HrefFilter filter = new HrefFilter().allowHost("usfca.edu").denyHost("cs.usfca.edu");
+			testFiltered(filter, html, "http://www.usfca.edu/");
+		}
+
+		@Test
+		public void test04RelativeHost() throws MalformedURLException {
+			String html = "<a href=\"index.html\"> <a href=\"http://www.usfca.edu/\">";
+			HrefFilter filter = new HrefFilter().allowHost("cs.usfca.edu");
+			testFiltered(filter, html, "http://www.cs.usfca.edu/~sjengle/cs212/index.html");
+		}
+
+		@Test
+		public void test05Paths() throws MalformedURLException {
+			String html = "<a href=\"index.html\"> <a href=\"private/notes.html\"> <a href=\"/~sjengle/\"> "
+					+ "<a href=\"http://www.usfca.edu/~sjengle/cs212/\"> <a href=\"?page=2\">";
+			HrefFilter filter = new HrefFilter().allowPath("/~sjengle/cs212/").denyPath("/~sjengle/cs212/private/");
+			testFiltered(filter, html, "http://www.cs.usfca.edu/~sjengle/cs212/index.html",
+					"http://www.usfca.edu/~sjengle/cs212/", "http://www.cs.usfca.edu/~sjengle/cs212/?page=2");
+		}
+
+		@Test
+		public void test06DotSegments() throws MalformedURLException {
+			String html = "<a href=\"../index.html\"> <a href=\"../../admin/secret.html\"> "
+					+ "<a href=\"./notes/../index.html\"> <a href=\"/public/../private/x.html\"> "
+					+ "<a href=\"private/./x.html\">";
+			HrefFilter filter = new HrefFilter().allowPath("/~sjengle/cs212/").denyPath("/~sjengle/cs212/private/");
+			testFiltered(filter, html, "http://www.cs.usfca.edu/~sjengle/cs212/index.html");
+
+			filter = new HrefFilter().denyPath("/private/");
+			testFiltered(filter, html, "http://www.cs.usfca.edu/~sjengle/index.html",
+					"http://www.cs.usfca.edu/admin/secret.html", "http://www.cs.usfca.edu/~sjengle/cs212/index.html",
+					"http://www.cs.usfca.edu/~sjengle/cs212/private/x.html");
+
+			Assert.assertEquals("/private/x.html", HrefFilter.removeDotSegments("/../private/x.html"));
+			Assert.assertEquals("/a/", HrefFilter.removeDotSegments("/a/b/.."));
+			Assert.assertEquals("/", HrefFilter.removeDotSegments("/a/.."));
+			Assert.assertEquals("/a/c", HrefFilter.removeDotSegments("/a/./b/../c"));
+			Assert.assertEquals("/", HrefFilter.removeDotSegments(""));
+		}
+
+		@Test
+		public void test07Combined() throws MalformedURLException {
+			String html = "<a href=\"index.html\"> <a href=\"http://www.usfca.edu/\">";
+			LinkFilter filter = LinkFilter.HTTP.and((base, text, start, end) -> text.startsWith("http", start));
+			testFiltered(filter, html, "http://www.usfca.edu/");
+		}
+
+		@Test
+		public void test08HostTrie() {
+			HostTrie trie = new HostTrie();
+			trie.add("*.usfca.edu");
+			trie.add("example.com");
+
+			Assert.assertTrue(trie.matches("usfca.edu"));
+			Assert.assertTrue(trie.matches("www.CS.usfca.edu."));
+			Assert.assertTrue(trie.matches("example.com"));
+			Assert.assertFalse(trie.matches("notusfca.edu"));
+			Assert.assertFalse(trie.matches("edu"));
+			Assert.assertFalse(trie.matches("example.co"));
+			Assert.assertEquals(2, trie.size());
+		}
+
+		@Test
+		public void test09LargePage() throws MalformedURLException {
+			// host checks must only scan the href, not the rest of the page
+			StringBuilder html = new StringBuilder();
+
+			for (int i = 0; i < 40000; i++) {
+				html.append(String.format("<p><a href=\"http://www.example.com:8080/page%d.html\">Page %d</a></p>%n", i, i));
+			}
+
+			URL base = new URL("http://www.example.com/");
+			HrefFilter filter = new HrefFilter().allowHost("example.com").denyHost("www.usfca.edu");
+			Assert.assertEquals(40000, LinkParser.listLinks(base, html.toString(), filter).size());
+
+			CountingText text = new CountingText(html.toString());
+			long length = 0;
+
+			for (int start = html.indexOf("href=\""); start >= 0; start = html.indexOf("href=\"", start)) {
+				start += 6;
+				int end = html.indexOf("\"", start);
+				Assert.assertTrue(filter.accept(base, text.window(start, end), start, end));
+				length += end - start;
+			}
+
+			Assert.assertEquals(0, text.getOutside());
+			Assert.assertTrue(text.getReads() + " reads", text.getReads() <= 4 * length);
+		}
+	}
+
+	@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+	public static class ResolverCacheTests {
+
+		/** Stub resolver that maps every host ending in ".test" to the loopback address. */
+		public static class StubResolver implements HostResolver {
+			public final AtomicInteger calls = new AtomicInteger();
+			public final Set<String> hosts = ConcurrentHashMap.newKeySet();
+			public final CountDownLatch latch = new CountDownLatch(1);
+
+			@Override
+			public InetAddress[] resolve(String host) throws UnknownHostException {
+				calls.incrementAndGet();
+				hosts.add(host);
+				latch.countDown();
+
+				if (!host.endsWith(".test")) {
+					throw new UnknownHostException(host);
+				}
+
+				return new InetAddress[] { InetAddress.getLoopbackAddress() };
+			}
+		}
+
+		@Test
+		public void test01Cached() throws UnknownHostException {
+			StubResolver stub = new StubResolver();
+			AtomicLong clock = new AtomicLong();
+			ResolverCache cache = new ResolverCache(stub, 1000, 100, clock::get);
+
+			Assert.assertArrayEquals(new InetAddress[] { InetAddress.getLoopbackAddress() }, cache.resolve("a.test"));
+			cache.resolve("A.TEST");
+			clock.set(999);
+			cache.resolve("a.test");
+
+			Assert.assertEquals(1, stub.calls.get());
+			Assert.assertEquals(2, cache.hits());
+			Assert.assertEquals(1, cache.misses());
+		}
+
+		@Test
+		public void test02Expired() throws UnknownHostException {
+			StubResolver stub = new StubResolver();
+			AtomicLong clock = new AtomicLong();
+			ResolverCache cache = new ResolverCache(stub, 1000, 100, clock::get);
+
+			cache.resolve("a.test");
+			clock.set(1000);
+			cache.resolve("a.test");
+
+			Assert.assertEquals(2, stub.calls.get());
+		}
+
+		@Test
+		public void test03Negative() {
+			StubResolver stub = new StubResolver();
+			AtomicLong clock = new AtomicLong();
+			ResolverCache cache = new ResolverCache(stub, 1000, 100, clock::get);
+
+			for (long time : new long[] { 0, 50, 100 }) {
+				clock.set(time);
+
+				try {
+					cache.resolve("missing.example");
+					Assert.fail("Expected UnknownHostException");
+				}
+				catch (UnknownHostException e) {
+					Assert.assertEquals("missing.example", e.getMessage());
+				}
+			}
+
+			Assert.assertEquals(2, stub.calls.get());
+		}
+
+		@Test
+		public void test04Prefetch() throws UnknownHostException, InterruptedException {
+			StubResolver stub = new StubResolver();
+			ResolverCache cache = new ResolverCache(stub, 1000, 100);
+
+			cache.prefetch("a.test");
+			Assert.assertTrue(stub.latch.await(5, TimeUnit.SECONDS));
+			cache.resolve("a.test");
+			cache.prefetch("a.test");
+
+			Assert.assertEquals(1, stub.calls.get());
+			Assert.assertEquals(1, cache.hits());
+		}
+
+		@Test
+		public void test05ListLinksPrefetch() throws MalformedURLException, InterruptedException {
+			StubResolver stub = new StubResolver();
+			ResolverCache original = LinkParser.getResolver();
+			LinkParser.setResolver(new ResolverCache(stub, 1000, 100));
+
+			try {
+				String html = "<a href=\"index.html\"> <a href=\"mailto:a@b.test\"> <a href=\"//BASE.test/\"> "
+						+ "<a href=\"http://other.test/\">";
+				URL base = new URL("http://base.test/");
+
+				// parsing alone never looks up hosts
+				LinkParser.listLinks(base, html);
+				Assert.assertEquals(0, stub.calls.get());
+
+				ResolverCache cache = new ResolverCache(stub, 1000, 100);
+				Assert.assertEquals(3, LinkParser.listLinks(base, html, cache.prefetching(LinkFilter.HTTP)).size());
+
+				Assert.assertTrue(stub.latch.await(5, TimeUnit.SECONDS));
+				Assert.assertEquals(Collections.singleton("other.test"), stub.hosts);
+			}
+			finally {
+				LinkParser.setResolver(original);
+			}
+		}
+
+		@Test
+		public void test06FetchHTML() throws IOException {
+			StubResolver stub = new StubResolver();
+			ResolverCache original = LinkParser.getResolver();
+			LinkParser.setResolver(new ResolverCache(stub, 1000, 100));
+
+			try (LocalHTTPServer server = new LocalHTTPServer()) {
+				String html = "<html><body><a href=\"/next.html\">Next</a></body></html>";
+				server.addPage("/index.html", "text/html; charset=utf-8", html);
+				server.addPage("/notes.txt", "text/plain", html);
+
+				Assert.assertEquals(html, LinkParser.fetchHTML(server.getURL("site.test", "/index.html")));
+				Assert.assertNull(LinkParser.fetchHTML(server.getURL("site.test", "/notes.txt")));
+				Assert.assertNull(LinkParser.fetchHTML(server.getURL("site.test", "/missing.html")));
+				Assert.assertNull(LinkParser.fetchHTML(server.getURL("unknown.example", "/index.html")));
+				Assert.assertEquals(2, stub.calls.get());
+			}
+			finally {
+				LinkParser.setResolver(original);
+			}
+		}
+
+		@Test
+		public void test07HostHeader() throws IOException {
+			StubResolver stub = new StubResolver();
+			ResolverCache original = LinkParser.getResolver();
+			LinkParser.setResolver(new ResolverCache(stub, 1000, 100));
+
+			try (LocalHTTPServer server = new LocalHTTPServer()) {
+				server.addPage("/index.html", "text/html", "<p>Hello</p>");
+
+				LinkParser.fetch(server.getURL("site.test", "/index.html"));
+				Assert.assertEquals("site.test:" + server.getPort(), server.getLastHost());
+			}
+			finally {
+				LinkParser.setResolver(original);
+			}
+		}
+
+		@Test
+		public void test08Sweep() throws UnknownHostException {
+			StubResolver stub = new StubResolver();
+			AtomicLong clock = new AtomicLong();
+			ResolverCache cache = new ResolverCache(stub, 1000, 100, clock::get);
+
+			for (int i = 0; i < 1024; i++) {
+				cache.resolve("old" + i + ".test");
+			}
+
+			clock.set(1000);
+
+			for (int i = 0; i < 1024; i++) {
+				cache.resolve("new" + i + ".test");
+			}
+
+			// the expired hosts were removed when the cache doubled
+			Assert.assertEquals(1024, cache.size());
+		}
+
+		@Test
+		public void test09PrefetchLimit() throws UnknownHostException, InterruptedException {
+			CountDownLatch release = new CountDownLatch(1);
+			StubResolver stub = new StubResolver() {
+				@Override
+				public InetAddress[] resolve(String host) throws UnknownHostException {
+					try {
+						release.await(5, TimeUnit.SECONDS);
+					}
+					catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+
+					return super.resolve(host);
+				}
+			};
+
+			ResolverCache cache = new ResolverCache(stub, 1000, 100);
+
+			try {
+				for (int i = 0; i < 5000; i++) {
+					cache.prefetch("host" + i + ".test");
+				}
+
+				// prefetches beyond the limit are dropped instead of queued
+				Assert.assertTrue(cache.size() <= 1024);
+			}
+			finally {
+				release.countDown();
+			}
+
+			Assert.assertNotNull(cache.resolve("host4999.test"));
+		}
+
+		@Test
+		public void test10Failure() throws IOException {
+			HostResolver broken = host -> {
+				throw new IllegalStateException("resolver is broken");
+			};
+
+			ResolverCache original = LinkParser.getResolver();
+			LinkParser.setResolver(new ResolverCache(broken, 1000, 100));
+
+			try (LocalHTTPServer server = new LocalHTTPServer()) {
+				server.addPage("/index.html", "text/html", "<p>Hello</p>");
+
+				// unchecked failures are reported as an unknown host
+				Assert.assertNull(LinkParser.fetchHTML(server.getURL("site.test", "/index.html")));
+				Assert.assertNull(LinkParser.fetchHTML(server.getURL("other.test", "/index.html"),
+						new FetchLimits().totalTimeout(1000)));
+
+				try {
+					LinkParser.getResolver().resolve("site.test");
+					Assert.fail("Expected UnknownHostException");
+				}
+				catch (UnknownHostException e) {
+					Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+				}
+			}
+			finally {
+				LinkParser.setResolver(original);
+			}
+		}
+	}
+
+	@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+	public static class FetchLimitsTests {
+
+		public static final String HTML = "<p><a href=\"/one.html\">One</a> <a href=\"/two.html\">Two</a> "
+				+ "<a href=\"/three.html\">Three</a></p>";
+
+		@Test
+		public void test01WithinLimits() throws IOException {
+			try (LocalHTTPServer server = new LocalHTTPServer()) {
+				server.addPage("/slow.html", "text/html", HTML, 50, 16, 5);
+				FetchLimits limits = new FetchLimits().connectTimeout(1000).firstByteTimeout(2000).totalTimeout(5000)
+						.maxBytes(HTML.length(), false);
+				Assert.assertEquals(HTML, LinkParser.fetchHTML(server.getURL("/slow.html"), limits));
+			}
+		}
+
+		@Test
+		public void test02FirstByteTimeout() throws IOException {
+			try (LocalHTTPServer server = new LocalHTTPServer()) {
+				server.addPage("/late.html", "text/html", HTML, 2000, Integer.MAX_VALUE, 0);
+				FetchLimits limits = new FetchLimits().firstByteTimeout(200);
+
+				long start = System.nanoTime();
+				Assert.assertNull(LinkParser.fetchHTML(server.getURL("/late.html"), limits));
+				Assert.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1500));
+			}
+		}
+
+		@Test
+		public void test03TotalTimeout() throws IOException {
+			try (LocalHTTPServer server = new LocalHTTPServer()) {
+				// every read returns quickly, but the whole page takes seconds
+				server.addPage("/trickle.html", "text/html", HTML, 0, 1, 20);
+				FetchLimits limits = new FetchLimits().firstByteTimeout(200).totalTimeout(300);
+
+				long start = System.nanoTime();
+				Assert.assertNull(LinkParser.fetchHTML(server.getURL("/trickle.html"), limits));
+				Assert.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1500));
+			}
+		}
+
+		@Test
+		public void test04DropLarge() throws IOException {
+			try (LocalHTTPServer server = new LocalHTTPServer()) {
+				server.addPage("/large.html", "text/html", HTML);
+				FetchLimits limits = new FetchLimits().maxBytes(HTML.length() - 1, false);
+				Assert.assertNull(LinkParser.fetchHTML(server.getURL("/large.html"), limits));
+			}
+		}
+
+		@Test
+		public void test05TruncateLarge() throws IOException {
+			try (LocalHTTPServer server = new LocalHTTPServer()) {
+				server.addPage("/large.html", "text/html", HTML, 0, 8, 1);
+				URL url = server.getURL("/large.html");
+
+				// cuts the page off in the middle of the second anchor tag
+				int cutoff = HTML.indexOf("two.html");
+				FetchLimits limits = new FetchLimits().maxBytes(cutoff, true);
+
+				HTTPResponse response = LinkParser.fetch(url, limits);
+				Assert.assertTrue(response.isTruncated());
+				Assert.assertEquals(HTML.substring(0, cutoff), response.getText());
+
+				String html = LinkParser.fetchHTML(url, limits);
+				ArrayList<URL> expected = new ArrayList<>();
+				expected.add(new URL(url, "/one.html"));
+				Assert.assertEquals(expected, LinkParser.listLinks(url, html));
+			}
+		}
+
+		/**
+		 * Serves one connection with a status line followed by the provided
+		 * header text, repeated until the client goes away.
+		 */
+		public static ServerSocket endlessHeaders(String header) throws IOException {
+			ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+
+			Thread thread = new Thread(() -> {
+				try (Socket client = server.accept()) {
+					OutputStream output = client.getOutputStream();
+					output.write("HTTP/1.0 200 OK\r\nContent-Type: text/html\r\n".getBytes(StandardCharsets.US_ASCII));
+					byte[] bytes = header.getBytes(StandardCharsets.US_ASCII);
+
+					for (int i = 0; i < 1000000; i++) {
+						output.write(bytes);
+					}
+				}
+				catch (IOException e) {
+					// client stopped reading
+				}
+			});
+
+			thread.setDaemon(true);
+			thread.start();
+			return server;
+		}
+
+		@Test
+		public void test06HeaderLimit() throws IOException {
+			for (String header : new String[] { "X-Long: aaaaaaaaaaaaaaaaaaaa", "X-Many: a\r\n" }) {
+				try (ServerSocket server = endlessHeaders(header)) {
+					URL url = new URL("http", "127.0.0.1", server.getLocalPort(), "/index.html");
+					FetchLimits limits = new FetchLimits().maxHeaderBytes(1024);
+
+					try {
+						LinkParser.fetch(url, limits);
+						Assert.fail("Expected IOException");
+					}
+					catch (IOException e) {
+						Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Response headers too large"));
+					}
+				}
+			}
+		}
+
+		@Test
+		public void test07SlowLookup() throws IOException {
+			CountDownLatch release = new CountDownLatch(1);
+			HostResolver slow = host -> {
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+
+				return new InetAddress[] { InetAddress.getLoopbackAddress() };
+			};
+
+			ResolverCache original = LinkParser.getResolver();
+			ResolverCache cache = new ResolverCache(slow, 1000, 100);
+			LinkParser.setResolver(cache);
+
+			try (LocalHTTPServer server = new LocalHTTPServer()) {
+				server.addPage("/index.html", "text/html", HTML);
+				FetchLimits limits = new FetchLimits().totalTimeout(300);
+
+				// a new lookup and one already in progress are both bounded
+				cache.prefetch("prefetched.test");
+
+				for (String host : new String[] { "site.test", "prefetched.test" }) {
+					long start = System.nanoTime();
+					Assert.assertNull(LinkParser.fetchHTML(server.getURL(host, "/index.html"), limits));
+					Assert.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1500));
+				}
+
+				// the lookup is still cached once it finishes
+				release.countDown();
+				Assert.assertEquals(HTML, LinkParser.fetchHTML(server.getURL("site.test", "/index.html")));
+			}
+			finally {
+				release.countDown();
+				LinkParser.setResolver(original);
+			}
+		}
+	}
+
+	@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+	public static class NearDuplicateTests {
+
+		public static String page(String title, int words) {
+			StringBuilder html = new StringBuilder();
+			html.append("<html><head><title>").append(title).append("</title></head><body>\n");
+			html.append("<ul><li><a href=\"contents.html\">Contents</a></li>");
+			html.append("<li><a href=\"genindex.html\">Index</a></li>");
+			html.append("<li><a href=\"setting-up.html\">Setting up</a></li></ul>\n<p>");
+
+			for (int i = 0; i < words; i++) {
+				html.append(" word").append((i * 7919) % 1000);
+			}
+
+			return html.append("</p></body></html>").toString();
+		}
+
+		@Test
+		public void test01Exact() {
+			NearDuplicateDetector detector = new NearDuplicateDetector();
+			Assert.assertFalse(detector.isDuplicate(page("Quickstart", 500)));
+			Assert.assertTrue(detector.isDuplicate(page("Quickstart", 500).toUpperCase()));
+			Assert.assertEquals(1, detector.getExactDuplicates());
+		}
+
+		@Test
+		public void test02Near() {
+			NearDuplicateDetector detector = new NearDuplicateDetector();
+			String original = page("Quickstart", 500);
+			String mirror = original.replace("<title>Quickstart", "<title>Mirror").replace(" word7 ", " changed ");
+
+			Assert.assertNotEquals(NearDuplicateDetector.fingerprint(original),
+					NearDuplicateDetector.fingerprint(mirror));
+			Assert.assertFalse(detector.isDuplicate(original));
+			Assert.assertTrue(detector.isDuplicate(mirror));
+		}
+
+		@Test
+		public void test03Different() {
+			NearDuplicateDetector detector = new NearDuplicateDetector();
+			Assert.assertFalse(detector.isDuplicate(page("Quickstart", 500)));
+			Assert.assertFalse(detector.isDuplicate(page("Basics", 200)));
+			Assert.assertFalse(detector.isDuplicate("<p>The same navigation, but entirely different content.</p>"));
+			Assert.assertEquals(0, detector.getDuplicates());
+		}
+
+		@Test
+		public void test04Threshold() {
+			NearDuplicateDetector detector = new NearDuplicateDetector(3);
+			long fingerprint = 0x0123456789abcdefL;
+
+			Assert.assertFalse(detector.isDuplicate(fingerprint));
+			Assert.assertTrue(detector.isDuplicate(fingerprint ^ 0x8000000000000001L));
+			Assert.assertTrue(detector.isDuplicate(fingerprint ^ 0x8000000100010000L));
+			Assert.assertFalse(detector.isDuplicate(fingerprint ^ 0x8000800080008000L));
+		}
+
+		@Test
+		public void test05Metrics() {
+			NearDuplicateDetector detector = new NearDuplicateDetector(0);
+			detector.isDuplicate(1);
+			detector.isDuplicate(1);
+			detector.isDuplicate(2);
+			detector.isDuplicate(3);
+
+			Assert.assertEquals(4, detector.getChecked());
+			Assert.assertEquals(1, detector.getDuplicates());
+			Assert.assertEquals(0.25, detector.getHitRate(), 0.0001);
+			Assert.assertEquals(1, detector.getCompared());
+		}
+
+		@Test
+		public void test06NoText() {
+			NearDuplicateDetector detector = new NearDuplicateDetector();
+			String frameset = "<html><frameset cols=\"50%,50%\"><frame src=\"left.html\"><frame src=\"right.html\">"
+					+ "</frameset></html>";
+			String images = "<html><body><a href=\"other.html\"><img src=\"other.png\"></a></body></html>";
+
+			Assert.assertFalse(NearDuplicateDetector.fingerprint(frameset).isPresent());
+			Assert.assertFalse(detector.isDuplicate(frameset));
+			Assert.assertFalse(detector.isDuplicate(images));
+			Assert.assertEquals(0, detector.getChecked());
+		}
+
+		@Test
+		public void test07Scripts() {
+			NearDuplicateDetector detector = new NearDuplicateDetector(0);
+			String text = "<p>The same text on both pages.</p>";
+
+			Assert.assertFalse(detector.isDuplicate("<SCRIPT>var first = 'one two three';</script>" + text));
+			Assert.assertTrue(detector.isDuplicate(text + "<style type=\"text/css\">p { color: red }</STYLE >"));
+			Assert.assertFalse(NearDuplicateDetector.fingerprint("<script>if (a < b) { c(); }</script>").isPresent());
+		}
+
+		@Test
+		public void test08Many() {
+			NearDuplicateDetector detector = new NearDuplicateDetector();
+			Random random = new Random(212);
+			long[] fingerprints = new long[100000];
+
+			for (int i = 0; i < fingerprints.length; i++) {
+				fingerprints[i] = random.nextLong();
+				detector.isDuplicate(fingerprints[i]);
+			}
+
+			// random fingerprints are almost never within the threshold
+			Assert.assertTrue(detector.getDuplicates() < 10);
+
+			for (long fingerprint : fingerprints) {
+				Assert.assertTrue(detector.isDuplicate(fingerprint ^ 0x0001000000000100L));
+			}
+		}
+	}
+
+	@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+	public static class PageStoreTests {
+
+		@Rule
+		public TemporaryFolder folder = new TemporaryFolder();
+
+		/** Counts how many links were checked by the filter. */
+		public final AtomicInteger scanned = new AtomicInteger();
+
+		public final LinkFilter filter = (base, html, start, end) -> scanned.incrementAndGet() > 0;
+
+		public static final String HTML = "<a href=\"one.html\">One</a> <a href=\"two.html#top\">Two</a>";
+
+		public ArrayList<URL> expected(URL base, String... links) throws MalformedURLException {
+			ArrayList<URL> expected = new ArrayList<>();
+
+			for (String link : links) {
+				expected.add(new URL(base, link));
+			}
+
+			return expected;
+		}
+
+		@Test
+		public void test01Unchanged() throws IOException {
+			URL base = new URL("http://www.example.com/docs/#intro");
+
+			try (PageStore store = new PageStore(folder.newFile().toPath(), 10)) {
+				ArrayList<URL> first = LinkParser.listLinks(base, HTML, filter, store);
+				ArrayList<URL> second = LinkParser.listLinks(new URL("http://www.example.com/docs/"), HTML, filter, store);
+
+				Assert.assertEquals(expected(base, "one.html", "two.html"), first);
+				Assert.assertEquals(first, second);
+				Assert.assertEquals(4, scanned.get());
+				Assert.assertEquals(1, store.getHits());
+			}
+		}
+
+		@Test
+		public void test02Changed() throws IOException {
+			URL base = new URL("http://www.example.com/docs/");
+
+			try (PageStore store = new PageStore(folder.newFile().toPath(), 10)) {
+				LinkParser.listLinks(base, HTML, filter, store);
+				ArrayList<URL> actual = LinkParser.listLinks(base, HTML + "<a href=\"three.html\">", filter, store);
+
+				Assert.assertEquals(expected(base, "one.html", "two.html", "three.html"), actual);
+				Assert.assertEquals(5, scanned.get());
+				Assert.assertEquals(0, store.getHits());
+			}
+		}
+
+		@Test
+		public void test03Evicted() throws IOException {
+			URL first = new URL("http://www.example.com/a/");
+			URL second = new URL("http://www.example.com/b/");
+
+			try (PageStore store = new PageStore(folder.newFile().toPath(), 1)) {
+				LinkParser.listLinks(first, HTML, filter, store);
+				LinkParser.listLinks(second, HTML, filter, store);
+
+				Assert.assertEquals(expected(first, "one.html", "two.html"),
+						LinkParser.listLinks(first, HTML, filter, store));
+				Assert.assertEquals(6, scanned.get());
+				Assert.assertEquals(1, store.getHits());
+			}
+		}
+
+		@Test
+		public void test04Reopened() throws IOException {
+			Path path = folder.newFile().toPath();
+			URL base = new URL("http://www.example.com/docs/");
+
+			try (PageStore store = new PageStore(path, 10)) {
+				LinkParser.listLinks(base, "<a href=\"old.html\">", filter, store);
+				LinkParser.listLinks(base, HTML, filter, store);
+				LinkParser.listLinks(new URL("http://www.example.com/other/"), HTML, filter, store);
+			}
+
+			try (PageStore store = new PageStore(path, 10)) {
+				Assert.assertEquals(2, store.size());
+				Assert.assertEquals(expected(base, "one.html", "two.html"),
+						LinkParser.listLinks(base, HTML, filter, store));
+
+				long before = path.toFile().length();
+				store.compact();
+				Assert.assertTrue(path.toFile().length() < before);
+				Assert.assertEquals(expected(base, "one.html", "two.html"),
+						LinkParser.listLinks(base, HTML, filter, store));
+				Assert.assertEquals(9, scanned.get());
+				Assert.assertEquals(2, store.getHits());
+			}
+		}
+
+		@Test
+		public void test05Hash() {
+			Assert.assertEquals(PageStore.hash(HTML), PageStore.hash(new String(HTML)));
+			Assert.assertNotEquals(PageStore.hash(HTML), PageStore.hash(HTML.replace("One", "Uno")));
+			Assert.assertNotEquals(PageStore.hash("abc"), PageStore.hash("abcd"));
+		}
+
+		@Test
+		public void test06Refiltered() throws IOException {
+			URL base = new URL("http://www.example.com/docs/");
+			HrefFilter denied = new HrefFilter().denyPath("/docs/two.html");
+
+			try (PageStore store = new PageStore(folder.newFile().toPath(), 10)) {
+				Assert.assertEquals(expected(base, "one.html", "two.html"),
+						LinkParser.listLinks(base, HTML, LinkFilter.HTTP, store));
+
+				// the filter changed, so the stored links are checked again
+				Assert.assertEquals(expected(base, "one.html"), LinkParser.listLinks(base, HTML, denied, store));
+				Assert.assertEquals(1, store.getHits());
+			}
+		}
+
+		@Test
+		public void test07SameAsPlain() throws IOException {
+			URL base = new URL("http://www.example.com/docs/");
+			String html = "<a href=\"one.html\"> <a href=\"http://www.example.com/docs/two.html\"> "
+					+ "<a href=\"caf\u00e9/menu.html\"> <a href=\"mailto:a@b.c\"> <a href=\"//www.example.com/three.html\">";
+
+			LinkFilter relative = (url, text, start, end) -> HrefFilter.authorityStart(text, start, end) < 0
+					&& HrefFilter.schemeEnd(text, start, end) < 0;
+			LinkFilter[] filters = { LinkFilter.HTTP, relative, new HrefFilter().denyPath("/docs/caf\u00e9/") };
+
+			try (PageStore store = new PageStore(folder.newFile().toPath(), 10)) {
+				for (int i = 0; i < 2; i++) {
+					for (LinkFilter filter : filters) {
+						Assert.assertEquals(LinkParser.listLinks(base, html, filter),
+								LinkParser.listLinks(base, html, filter, store));
+					}
+				}
+
+				Assert.assertEquals(5, store.getHits());
+			}
+		}
+
+		@Test
+		public void test08AutoCompact() throws IOException {
+			Path path = folder.newFile().toPath();
+			URL base = new URL("http://www.example.com/docs/");
+
+			try (PageStore store = new PageStore(path, 10)) {
+				LinkParser.listLinks(base, HTML, filter, store);
+				long record = path.toFile().length();
+
+				// every recrawl finds a changed page, which appends a new record
+				for (int i = 0; i < 1000; i++) {
+					LinkParser.listLinks(base, HTML + "<!-- " + i + " -->", filter, store);
+				}
+
+				Assert.assertEquals(1, store.size());
+				Assert.assertTrue(path.toFile().length() < record * 100);
+				Assert.assertEquals(expected(base, "one.html", "two.html"),
+						LinkParser.listLinks(base, HTML + "<!-- 999 -->", filter, store));
+				Assert.assertEquals(1, store.getHits());
+			}
+
+			try (PageStore store = new PageStore(path, 10)) {
+				Assert.assertEquals(1, store.size());
+			}
+		}
+	}
+
+	@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+	public static class SyntheticSiteTests {
+
+		@Test
+		public void test01Deterministic() {
+			SyntheticSite site = new SyntheticSite("http://127.0.0.1/").seed(42);
+			Assert.assertEquals(site.getHTML(7), new SyntheticSite("http://127.0.0.1/").seed(42).getHTML(7));
+			Assert.assertNotEquals(site.getHTML(7), new SyntheticSite("http://127.0.0.1/").seed(43).getHTML(7));
+			Assert.assertNotEquals(site.getHTML(7), site.getHTML(8));
+		}
+
+		@Test
+		public void test02Noise() throws MalformedURLException {
+			SyntheticSite site = new SyntheticSite("http://127.0.0.1/").pages(100).noise(1).absolute(0.5).decoys(8);
+
+			for (int i = 0; i < site.getPages(); i++) {
+				String html = site.getHTML(i);
+				String debug = String.format("%nHTML:%n%s%n%n", html);
+				Assert.assertEquals(debug, site.getLinks(i), LinkParser.listLinks(site.getURL(i), html));
+			}
+		}
+
+		@Test
+		public void test03Size() throws MalformedURLException {
+			SyntheticSite site = new SyntheticSite("http://127.0.0.1/").fanout(50).filler(0).size(1000000);
+			String html = site.getHTML(0);
+
+			Assert.assertTrue(html.length() >= 1000000);
+			Assert.assertEquals(site.getLinks(0), LinkParser.listLinks(site.getURL(0), html));
+		}
+
+		@Test
+		public void test04Served() throws IOException {
+			try (LocalHTTPServer server = new LocalHTTPServer()) {
+				SyntheticSite site = new SyntheticSite(server.getURL("/").toString()).pages(20);
+				site.serve(server);
+
+				for (int i = 0; i < site.getPages(); i++) {
+					URL url = site.getURL(i);
+					Assert.assertEquals(site.getLinks(i), LinkParser.listLinks(url, LinkParser.fetchHTML(url)));
+				}
+
+				Assert.assertNull(LinkParser.fetchHTML(server.getURL("/site/page20.html")));
+			}
+		}
+
+		@Test
+		public void test05SubPath() throws MalformedURLException {
+			SyntheticSite site = new SyntheticSite("http://127.0.0.1/sub").pages(100).absolute(0);
+
+			for (int i = 0; i < site.getPages(); i++) {
+				URL url = site.getURL(i);
+				Assert.assertEquals("/sub/site/page" + i + ".html", url.getPath());
+				Assert.assertEquals(i, site.getIndex(url.getPath()));
+
+				ArrayList<URL> links = LinkParser.listLinks(url, site.getHTML(i));
+				Assert.assertEquals(site.getLinks(i), links);
+
+				for (URL link : links) {
+					Assert.assertNotEquals(-1, site.getIndex(link.getPath()));
+				}
+			}
+
+			Assert.assertEquals(-1, site.getIndex("/site/page1.html"));
+		}
+	}
+
+	@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+	public static class RobotsTests {
+
+		public static final String ROBOTS = "# comment\n"
+				+ "User-agent: OtherBot\n"
+				+ "Disallow: /\n"
+				+ "\n"
+				+ "User-agent: *\n"
+				+ "Disallow: /private/\n"
+				+ "Allow: /private/public/\n"
+				+ "Disallow: /*.pdf$\n"
+				+ "Disallow: /search*results\n"
+				+ "Disallow: /fish\n"
+				+ "Allow: /fish\n";
+
+		@Test
+		public void test01Prefix() {
+			RobotsRules rules = RobotsRules.parse(ROBOTS, "LinkParser");
+			Assert.assertTrue(rules.isAllowed("/"));
+			Assert.assertTrue(rules.isAllowed("/index.html"));
+			Assert.assertFalse(rules.isAllowed("/private/"));
+			Assert.assertFalse(rules.isAllowed("/private/notes.html"));
+			Assert.assertTrue(rules.isAllowed("/private/public/notes.html"));
+			Assert.assertTrue(rules.isAllowed("/fish.html"));
+		}
+
+		@Test
+		public void test02Wildcards() {
+			RobotsRules rules = RobotsRules.parse(ROBOTS, "LinkParser");
+			Assert.assertFalse(rules.isAllowed("/docs/guide.pdf"));
+			Assert.assertTrue(rules.isAllowed("/docs/guide.pdf?download=1"));
+			Assert.assertTrue(rules.isAllowed("/docs/guide.pdfx"));
+			Assert.assertFalse(rules.isAllowed("/search/all/results"));
+			Assert.assertFalse(rules.isAllowed("/searchresults?q=1"));
+			Assert.assertTrue(rules.isAllowed("/search/all"));
+		}
+
+		@Test
+		public void test03Agents() {
+			Assert.assertFalse(RobotsRules.parse(ROBOTS, "otherbot").isAllowed("/index.html"));
+			Assert.assertTrue(RobotsRules.parse("", "LinkParser").isAllowed("/index.html"));
+			Assert.assertEquals(6, RobotsRules.parse(ROBOTS, "LinkParser").size());
+			Assert.assertFalse(RobotsRules.DISALLOW_ALL.isAllowed("/"));
+			Assert.assertTrue(RobotsRules.ALLOW_ALL.isAllowed("/"));
+		}
+
+		@Test
+		public void test04Cached() throws IOException {
+			try (LocalHTTPServer server = new LocalHTTPServer()) {
+				server.addPage("/robots.txt", "text/plain", ROBOTS);
+				AtomicLong clock = new AtomicLong();
+				RobotsCache robots = new RobotsCache("LinkParser", new FetchLimits(), 1000, 100, clock::get);
+
+				Assert.assertTrue(robots.isAllowed(server.getURL("/index.html")));
+				Assert.assertFalse(robots.isAllowed(server.getURL("/private/notes.html#top")));
+				Assert.assertEquals(1, robots.getFetches());
+
+				clock.set(1000);
+				Assert.assertFalse(robots.isAllowed(server.getURL("/guide.pdf")));
+				Assert.assertEquals(2, robots.getFetches());
+			}
+		}
+
+		@Test
+		public void test05Unavailable() throws IOException {
+			RobotsCache robots = new RobotsCache("LinkParser", new FetchLimits());
+
+			try (LocalHTTPServer server = new LocalHTTPServer()) {
+				// no robots.txt, so everything is allowed
+				Assert.assertTrue(robots.isAllowed(server.getURL("/private/notes.html")));
+			}
+
+			// a port nothing listens on, so the connection is refused
+			int port;
+
+			try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+				port = socket.getLocalPort();
+			}
+
+			URL unreachable = new URL("http", "127.0.0.1", port, "/index.html");
+			Assert.assertFalse(robots.isAllowed(unreachable));
+			Assert.assertSame(RobotsRules.DISALLOW_ALL, robots.getRules(unreachable));
+		}
+
+		@Test
+		public void test06Filter() throws IOException {
+			try (LocalHTTPServer server = new LocalHTTPServer()) {
+				server.addPage("/robots.txt", "text/plain", ROBOTS);
+				RobotsCache robots = new RobotsCache("LinkParser", new FetchLimits());
+				URL base = server.getURL("/private/index.html");
+
+				String html = "<a href=\"notes.html\"> <a href=\"public/notes.html\"> <a href=\"../guide.pdf\"> "
+						+ "<a href=\"../guide.pdf?download=1#top\"> <a href=\"/index.html\"> <a href=\"mailto:a@b.c\"> "
+						+ "<a href=\"" + server.getURL("/search/results") + "\">";
+
+				ArrayList<URL> expected = new ArrayList<>();
+				expected.add(new URL(base, "public/notes.html"));
+				expected.add(new URL(base, "/guide.pdf?download=1"));
+				expected.add(new URL(base, "/index.html"));
+
+				Assert.assertEquals(expected, LinkParser.listLinks(base, html, new HrefFilter().and(robots)));
+				Assert.assertEquals(1, robots.getFetches());
+			}
+		}
+
+		@Test
+		public void test07LargePage() throws IOException {
+			try (LocalHTTPServer server = new LocalHTTPServer()) {
+				server.addPage("/robots.txt", "text/plain", ROBOTS);
+				RobotsCache robots = new RobotsCache("LinkParser", new FetchLimits());
+				URL base = server.getURL("/index.html");
+
+				// relative hrefs without a fragment, so each check must stop at the end of its href
+				StringBuilder html = new StringBuilder();
+
+				for (int i = 0; i < 40000; i++) {
+					html.append(String.format("<p><a href=\"%s/page%d.html?q=%d\">Page %d</a></p>%n",
+							i % 2 == 0 ? "private" : "guide", i, i, i));
+				}
+
+				Assert.assertEquals(20000, LinkParser.listLinks(base, html.toString(), robots).size());
+
+				CountingText text = new CountingText(html.toString());
+				long length = 0;
+				int accepted = 0;
+
+				for (int start = html.indexOf("href=\""); start >= 0; start = html.indexOf("href=\"", start)) {
+					start += 6;
+					int end = html.indexOf("\"", start);
+					accepted += robots.accept(base, text.window(start, end), start, end) ? 1 : 0;
+					length += end - start;
+				}
+
+				Assert.assertEquals(20000, accepted);
+				Assert.assertEquals(0, text.getOutside());
+				Assert.assertTrue(text.getReads() + " reads", text.getReads() <= 8 * length);
+			}
+		}
+
+		@Test
+		public void test08DotSegments() throws IOException {
+			try (LocalHTTPServer server = new LocalHTTPServer()) {
+				server.addPage("/robots.txt", "text/plain", ROBOTS);
+				RobotsCache robots = new RobotsCache("LinkParser", new FetchLimits());
+				URL base = server.getURL("/index.html");
+
+				String html = "<a href=\"/a/../private/x.html\"> <a href=\"../private/x.html\"> "
+						+ "<a href=\"private/public/../notes.html\"> <a href=\"/public/./x.html\"> "
+						+ "<a href=\"private/public/./y.html\">";
+
+				ArrayList<URL> expected = new ArrayList<>();
+				expected.add(new URL(base, "/public/./x.html"));
+				expected.add(new URL(base, "/private/public/y.html"));
+
+				Assert.assertEquals(expected, LinkParser.listLinks(base, html, robots));
+				Assert.assertFalse(robots.isAllowed(new URL(base, "/public/../private/x.html")));
+				Assert.assertFalse(robots.isAllowed(new URL(base, "../private/x.html")));
+				Assert.assertFalse(robots.isAllowed(server.getURL("/private/public/../x.html?a=1")));
+			}
+		}
+	}
+
 	@FixMethodOrder(MethodSorters.NAME_ASCENDING)
 	public static class RemoteLinkTest {
 		/*
@@ -0,0 +1,310 @@
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * A minimal HTTP/1.0 server on the loopback interface for testing
+ * {@link LinkParser#fetchHTML(URL)} without any network access. Each request
+ * is handled on its own daemon thread, and every response closes the
+ * connection. Pages may be trickled out slowly to test fetch deadlines.
+ */
+public class LocalHTTPServer implements Closeable {
+
+	/** Socket accepting connections. */
+	private final ServerSocket server;
+
+	/** Responses by request path (including any query). */
+	private final Map<String, Page> pages;
+
+	/** Generates HTML for paths without a page, or null if there is none. */
+	private volatile Function<String, String> generator;
+
+	/** Host header of the most recent request, or null if there was none. */
+	private volatile String lastHost;
+
+	/**
+	 * Starts a server on a free port of the loopback interface.
+	 *
+	 * @throws IOException
+	 *             if unable to open the server socket
+	 */
+	public LocalHTTPServer() throws IOException {
+		this.server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		this.pages = new ConcurrentHashMap<>();
+		this.generator = path -> null;
+
+		Thread thread = new Thread(this::accept, "LocalHTTPServer-" + server.getLocalPort());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Adds a page that will be served with status 200.
+	 *
+	 * @param path
+	 *            path of the page, starting with a slash
+	 * @param type
+	 *            content type of the page
+	 * @param body
+	 *            body of the page
+	 */
+	public void addPage(String path, String type, String body) {
+		addPage(path, type, body, 0, Integer.MAX_VALUE, 0);
+	}
+
+	/**
+	 * Adds a page that will be served slowly with status 200. The server waits
+	 * before sending the first byte of the response, and then sends the
+	 * response a few bytes at a time.
+	 *
+	 * @param path
+	 *            path of the page, starting with a slash
+	 * @param type
+	 *            content type of the page
+	 * @param body
+	 *            body of the page
+	 * @param delay
+	 *            milliseconds to wait before sending the first byte
+	 * @param chunk
+	 *            number of bytes to send at a time
+	 * @param interval
+	 *            milliseconds to wait between chunks
+	 */
+	public void addPage(String path, String type, String body, long delay, int chunk, long interval) {
+		pages.put(path, new Page(type, body, delay, chunk, interval));
+	}
+
+	/**
+	 * Sets how HTML is generated for paths that were not added as pages, so
+	 * large sites can be served without keeping every page in memory.
+	 *
+	 * @param generator
+	 *            returns the HTML for a path, or null if the path does not exist
+	 */
+	public void setGenerator(Function<String, String> generator) {
+		this.generator = generator;
+	}
+
+	/**
+	 * Returns the port the server is listening on.
+	 *
+	 * @return server port
+	 */
+	public int getPort() {
+		return server.getLocalPort();
+	}
+
+	/**
+	 * Returns a url for the path on this server using the provided host name.
+	 * The host must resolve to the loopback address.
+	 *
+	 * @param host
+	 *            host name to use in the url
+	 * @param path
+	 *            path of the page, starting with a slash
+	 * @return url of the page
+	 * @throws MalformedURLException
+	 *             if the url is invalid
+	 */
+	public URL getURL(String host, String path) throws MalformedURLException {
+		return new URL("http", host, getPort(), path);
+	}
+
+	/**
+	 * Returns a url for the path on this server using the loopback address.
+	 *
+	 * @param path
+	 *            path of the page, starting with a slash
+	 * @return url of the page
+	 * @throws MalformedURLException
+	 *             if the url is invalid
+	 */
+	public URL getURL(String path) throws MalformedURLException {
+		return getURL(server.getInetAddress().getHostAddress(), path);
+	}
+
+	/**
+	 * Returns the Host header of the most recent request.
+	 *
+	 * @return host header, or null if no request had one
+	 */
+	public String getLastHost() {
+		return lastHost;
+	}
+
+	@Override
+	public void close() throws IOException {
+		server.close();
+	}
+
+	/**
+	 * Accepts connections until the server is closed.
+	 */
+	private void accept() {
+		while (!server.isClosed()) {
+			try {
+				Socket socket = server.accept();
+				Thread thread = new Thread(() -> handle(socket), "LocalHTTPServer-request");
+				thread.setDaemon(true);
+				thread.start();
+			}
+			catch (IOException e) {
+				// server was closed
+			}
+		}
+	}
+
+	/**
+	 * Reads a request and writes the matching page (or a 404 response).
+	 *
+	 * @param socket
+	 *            connection to handle
+	 */
+	private void handle(Socket socket) {
+		try (Socket client = socket) {
+			BufferedReader reader = new BufferedReader(
+					new InputStreamReader(client.getInputStream(), StandardCharsets.ISO_8859_1));
+
+			String request = reader.readLine();
+			String line;
+
+			while ((line = reader.readLine()) != null && !line.isEmpty()) {
+				if (line.regionMatches(true, 0, "Host:", 0, 5)) {
+					lastHost = line.substring(5).trim();
+				}
+			}
+
+			String[] parts = request == null ? new String[0] : request.split(" ");
+			Page page = parts.length < 2 ? null : pages.get(parts[1]);
+
+			if (page == null && parts.length >= 2) {
+				String html = generator.apply(parts[1]);
+				page = html == null ? null : new Page("text/html; charset=utf-8", html, 0, Integer.MAX_VALUE, 0);
+			}
+
+			if (page == null) {
+				page = new Page("text/plain", "Not Found", 0, Integer.MAX_VALUE, 0);
+				write(client.getOutputStream(), "404 Not Found", page);
+			}
+			else {
+				write(client.getOutputStream(), "200 OK", page);
+			}
+		}
+		catch (IOException e) {
+			// client went away
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Writes a response.
+	 *
+	 * @param output
+	 *            stream to write to
+	 * @param status
+	 *            status code and reason
+	 * @param page
+	 *            page to send
+	 * @throws IOException
+	 *             if unable to write
+	 * @throws InterruptedException
+	 *             if interrupted while trickling the response
+	 */
+	private static void write(OutputStream output, String status, Page page) throws IOException, InterruptedException {
+		byte[] body = page.body.getBytes(StandardCharsets.UTF_8);
+		String headers = String.format("HTTP/1.0 %s\r\nContent-Type: %s\r\nContent-Length: %d\r\n"
+				+ "Connection: close\r\n\r\n", status, page.type, body.length);
+
+		Thread.sleep(page.delay);
+		trickle(output, headers.getBytes(StandardCharsets.ISO_8859_1), page, false);
+		trickle(output, body, page, true);
+	}
+
+	/**
+	 * Writes bytes a chunk at a time, waiting between chunks.
+	 *
+	 * @param output
+	 *            stream to write to
+	 * @param bytes
+	 *            bytes to write
+	 * @param page
+	 *            page with the chunk size and interval
+	 * @param wait
+	 *            whether to wait before the first chunk
+	 * @throws IOException
+	 *             if unable to write
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	private static void trickle(OutputStream output, byte[] bytes, Page page, boolean wait)
+			throws IOException, InterruptedException {
+		for (int i = 0; i < bytes.length; i += page.chunk) {
+			if (i > 0 || wait) {
+				Thread.sleep(page.interval);
+			}
+
+			output.write(bytes, i, Math.min(page.chunk, bytes.length - i));
+			output.flush();
+
+			if (bytes.length - i <= page.chunk) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * A page served by the server.
+	 */
+	private static class Page {
+
+		/** Content type of the page. */
+		private final String type;
+
+		/** Body of the page. */
+		private final String body;
+
+		/** Milliseconds to wait before sending the first byte. */
+		private final long delay;
+
+		/** Number of bytes to send at a time. */
+		private final int chunk;
+
+		/** Milliseconds to wait between chunks. */
+		private final long interval;
+
+		/**
+		 * Initializes a page.
+		 *
+		 * @param type
+		 *            content type of the page
+		 * @param body
+		 *            body of the page
+		 * @param delay
+		 *            milliseconds to wait before sending the first byte
+		 * @param chunk
+		 *            number of bytes to send at a time
+		 * @param interval
+		 *            milliseconds to wait between chunks
+		 */
+		private Page(String type, String body, long delay, int chunk, long interval) {
+			this.type = type;
+			this.body = body;
+			this.delay = delay;
+			this.chunk = chunk;
+			this.interval = interval;
+		}
+	}
+}
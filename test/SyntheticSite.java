@@ -0,0 +1,557 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * Generates a deterministic site of synthetic HTML pages for scaling tests of
+ * {@link LinkParser}. Every page is generated on demand from the seed and its
+ * index, so sites with millions of pages never need to be kept in memory, and
+ * the same seed always produces the same site.
+ *
+ * <p>
+ * Each page links to {@code fanout} other pages of the site, using a mix of
+ * relative and absolute hrefs (some with fragments), with optional noise in
+ * the tag case and whitespace. Pages also contain decoys that must not be
+ * parsed as links: {@code link} tags, anchors without an href, mailto links,
+ * and href text outside of tags. Filler text controls the link density, and a
+ * minimum page size pads pages up to documents of many megabytes.
+ * </p>
+ *
+ * <p>
+ * Run {@link #main(String[])} to print throughput and memory scaling tables.
+ * </p>
+ */
+public class SyntheticSite {
+
+	/** Words used for filler text. */
+	private static final String[] WORDS = { "array", "matrix", "numpy", "index", "shape", "vector", "broadcast",
+			"dtype", "slice", "axis", "reshape", "stack", "linear", "algebra", "random", "sample" };
+
+	/** Root url of the site, ending in a slash. */
+	private final String root;
+
+	/** Path of the root url, ending in a slash. */
+	private final String rootPath;
+
+	/** Seed for generating pages. */
+	private long seed;
+
+	/** Number of pages in the site. */
+	private int pages;
+
+	/** Number of links from each page to other pages. */
+	private int fanout;
+
+	/** Number of filler words between links. */
+	private int filler;
+
+	/** Fraction of links that are absolute. */
+	private double absolute;
+
+	/** Fraction of tags with case and whitespace noise. */
+	private double noise;
+
+	/** Number of decoys on each page. */
+	private int decoys;
+
+	/** Minimum size of each page in characters. */
+	private int size;
+
+	/**
+	 * Initializes a site of 1000 pages with 10 links per page.
+	 *
+	 * @param root
+	 *            root url of the site, such as {@code http://localhost:8080/}
+	 */
+	public SyntheticSite(String root) {
+		this.root = root.endsWith("/") ? root : root + "/";
+		this.rootPath = this.root.substring(this.root.indexOf('/', this.root.indexOf("://") + 3));
+		this.seed = 212;
+		this.pages = 1000;
+		this.fanout = 10;
+		this.filler = 20;
+		this.absolute = 0.3;
+		this.noise = 0.2;
+		this.decoys = 3;
+		this.size = 0;
+	}
+
+	/**
+	 * Sets the seed for generating pages.
+	 *
+	 * @param seed
+	 *            random seed
+	 * @return this site
+	 */
+	public SyntheticSite seed(long seed) {
+		this.seed = seed;
+		return this;
+	}
+
+	/**
+	 * Sets the number of pages in the site.
+	 *
+	 * @param pages
+	 *            number of pages
+	 * @return this site
+	 */
+	public SyntheticSite pages(int pages) {
+		this.pages = pages;
+		return this;
+	}
+
+	/**
+	 * Sets the number of links from each page to other pages.
+	 *
+	 * @param fanout
+	 *            links per page
+	 * @return this site
+	 */
+	public SyntheticSite fanout(int fanout) {
+		this.fanout = fanout;
+		return this;
+	}
+
+	/**
+	 * Sets the number of filler words between links, which controls the link
+	 * density.
+	 *
+	 * @param filler
+	 *            words between links
+	 * @return this site
+	 */
+	public SyntheticSite filler(int filler) {
+		this.filler = filler;
+		return this;
+	}
+
+	/**
+	 * Sets the fraction of links that are absolute instead of relative.
+	 *
+	 * @param absolute
+	 *            fraction from 0 to 1
+	 * @return this site
+	 */
+	public SyntheticSite absolute(double absolute) {
+		this.absolute = absolute;
+		return this;
+	}
+
+	/**
+	 * Sets the fraction of tags with noise in the tag case and whitespace.
+	 *
+	 * @param noise
+	 *            fraction from 0 to 1
+	 * @return this site
+	 */
+	public SyntheticSite noise(double noise) {
+		this.noise = noise;
+		return this;
+	}
+
+	/**
+	 * Sets the number of decoys on each page.
+	 *
+	 * @param decoys
+	 *            decoys per page
+	 * @return this site
+	 */
+	public SyntheticSite decoys(int decoys) {
+		this.decoys = decoys;
+		return this;
+	}
+
+	/**
+	 * Sets the minimum size of each page. Pages smaller than this are padded
+	 * with filler paragraphs.
+	 *
+	 * @param size
+	 *            minimum size in characters
+	 * @return this site
+	 */
+	public SyntheticSite size(int size) {
+		this.size = size;
+		return this;
+	}
+
+	/**
+	 * Returns the number of pages in the site.
+	 *
+	 * @return number of pages
+	 */
+	public int getPages() {
+		return pages;
+	}
+
+	/**
+	 * Returns the url of a page.
+	 *
+	 * @param index
+	 *            index of the page
+	 * @return url of the page
+	 * @throws MalformedURLException
+	 *             if the root url is invalid
+	 */
+	public URL getURL(int index) throws MalformedURLException {
+		return new URL(root + path(index).substring(1));
+	}
+
+	/**
+	 * Returns the index of the page at the path, or -1 if there is none.
+	 *
+	 * @param path
+	 *            path of the page
+	 * @return index of the page, or -1 if the path is not a page of this site
+	 */
+	public int getIndex(String path) {
+		String prefix = rootPath + "site/page";
+
+		if (!path.startsWith(prefix) || !path.endsWith(".html")) {
+			return -1;
+		}
+
+		try {
+			int index = Integer.parseInt(path.substring(prefix.length(), path.length() - 5));
+			return index >= 0 && index < pages ? index : -1;
+		}
+		catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Returns the HTML of a page.
+	 *
+	 * @param index
+	 *            index of the page
+	 * @return html of the page
+	 */
+	public String getHTML(int index) {
+		return generate(index, null);
+	}
+
+	/**
+	 * Returns the links {@link LinkParser#listLinks(URL, String)} should find
+	 * on a page, in order.
+	 *
+	 * @param index
+	 *            index of the page
+	 * @return expected links of the page
+	 * @throws MalformedURLException
+	 *             if the root url is invalid
+	 */
+	public ArrayList<URL> getLinks(int index) throws MalformedURLException {
+		ArrayList<Integer> targets = new ArrayList<>();
+		generate(index, targets);
+
+		ArrayList<URL> links = new ArrayList<>(targets.size());
+
+		for (int target : targets) {
+			links.add(getURL(target));
+		}
+
+		return links;
+	}
+
+	/**
+	 * Serves the pages of this site from the server. The root url of the site
+	 * must point to the server.
+	 *
+	 * @param server
+	 *            server to serve the pages from
+	 */
+	public void serve(LocalHTTPServer server) {
+		server.setGenerator(path -> {
+			int index = getIndex(path);
+			return index < 0 ? null : getHTML(index);
+		});
+	}
+
+	/**
+	 * Returns the path of a page.
+	 *
+	 * @param index
+	 *            index of the page
+	 * @return path of the page
+	 */
+	private static String path(int index) {
+		return "/site/page" + index + ".html";
+	}
+
+	/**
+	 * Generates a page, optionally collecting the indices of the pages it
+	 * links to.
+	 *
+	 * @param index
+	 *            index of the page
+	 * @param targets
+	 *            list to add the linked page indices to, or null
+	 * @return html of the page
+	 */
+	private String generate(int index, ArrayList<Integer> targets) {
+		Random random = new Random(seed * 0x9e3779b97f4a7c15L + index);
+		StringBuilder html = new StringBuilder(Math.max(size, 256 + fanout * (80 + filler * 8)) + 64);
+
+		html.append("<!DOCTYPE html>\n<html>\n<head>\n<title>Page ").append(index).append("</title>\n");
+		html.append("<link rel=\"stylesheet\" type=\"text/css\" href=\"../static/style.css\">\n</head>\n<body>\n");
+		html.append("<h1><a name=\"top\">Page ").append(index).append("</a></h1>\n");
+
+		int decoy = 0;
+
+		for (int i = 0; i < fanout; i++) {
+			html.append("<p>");
+			text(html, random, filler);
+
+			int target = random.nextInt(pages);
+			anchor(html, random, href(random, target));
+
+			if (targets != null) {
+				targets.add(target);
+			}
+
+			html.append("</p>\n");
+
+			// spread the decoys between the links
+			if (decoy < decoys && (i + 1) * decoys / fanout > decoy) {
+				decoy(html, random, decoy++);
+			}
+		}
+
+		while (decoy < decoys) {
+			decoy(html, random, decoy++);
+		}
+
+		while (html.length() < size) {
+			html.append("<p>");
+			text(html, random, 200);
+			html.append("</p>\n");
+		}
+
+		return html.append("</body>\n</html>\n").toString();
+	}
+
+	/**
+	 * Returns an href that resolves to the target page, in one of several
+	 * relative or absolute forms.
+	 *
+	 * @param random
+	 *            random generator of the page
+	 * @param target
+	 *            index of the target page
+	 * @return href of the link
+	 */
+	private String href(Random random, int target) {
+		String fragment = random.nextInt(4) == 0 ? "#section" + random.nextInt(10) : "";
+
+		if (random.nextDouble() < absolute) {
+			return root + path(target).substring(1) + fragment;
+		}
+
+		switch (random.nextInt(4)) {
+		case 0:
+			return "page" + target + ".html" + fragment;
+		case 1:
+			return "./page" + target + ".html" + fragment;
+		case 2:
+			return rootPath + path(target).substring(1) + fragment;
+		default:
+			return "../site/page" + target + ".html" + fragment;
+		}
+	}
+
+	/**
+	 * Appends an anchor tag with the href, possibly with noise.
+	 *
+	 * @param html
+	 *            html to append to
+	 * @param random
+	 *            random generator of the page
+	 * @param href
+	 *            href of the anchor
+	 */
+	private void anchor(StringBuilder html, Random random, String href) {
+		boolean noisy = random.nextDouble() < noise;
+
+		if (!noisy) {
+			html.append("<a class=\"reference\" href=\"").append(href).append("\">link</a>");
+			return;
+		}
+
+		String[] spaces = { " ", "  ", "\n", "\t", " \n " };
+		String tag = random.nextBoolean() ? "A" : "a";
+		String attribute = random.nextBoolean() ? "HREF" : "hReF";
+
+		html.append('<').append(tag).append(spaces[random.nextInt(spaces.length)]);
+
+		if (random.nextBoolean()) {
+			html.append("title = \"a href\"").append(spaces[random.nextInt(spaces.length)]);
+		}
+
+		html.append(attribute).append(spaces[random.nextInt(spaces.length)]).append('=');
+		html.append(spaces[random.nextInt(spaces.length)]).append('"').append(href).append('"');
+		html.append(spaces[random.nextInt(spaces.length)]).append(">link</").append(tag).append('>');
+	}
+
+	/**
+	 * Appends a decoy that must not be parsed as a link.
+	 *
+	 * @param html
+	 *            html to append to
+	 * @param random
+	 *            random generator of the page
+	 * @param decoy
+	 *            index of the decoy on this page
+	 */
+	private static void decoy(StringBuilder html, Random random, int decoy) {
+		switch (decoy % 4) {
+		case 0:
+			html.append("<link rel=\"prefetch\" href=\"page").append(random.nextInt(100)).append(".html\">\n");
+			break;
+		case 1:
+			html.append("<p>The a href=\"page").append(random.nextInt(100)).append(".html\" attribute is text.</p>\n");
+			break;
+		case 2:
+			html.append("<a name=\"decoy").append(decoy).append("\">No link</a>\n");
+			break;
+		default:
+			html.append("<a href=\"mailto:decoy").append(decoy).append("@example.com\">Mail</a>\n");
+			break;
+		}
+	}
+
+	/**
+	 * Appends filler words.
+	 *
+	 * @param html
+	 *            html to append to
+	 * @param random
+	 *            random generator of the page
+	 * @param words
+	 *            number of words to append
+	 */
+	private static void text(StringBuilder html, Random random, int words) {
+		for (int i = 0; i < words; i++) {
+			html.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+		}
+	}
+
+	/**
+	 * Prints two scaling tables: listLinks throughput for growing document
+	 * sizes, and a breadth-first crawl (generate, parse, track visited pages)
+	 * for growing site sizes. No network is used unless {@code -http} is given,
+	 * in which case pages are fetched from an in-process server instead of
+	 * being generated directly.
+	 *
+	 * @param args
+	 *            optional {@code -http} flag and largest site size (default
+	 *            1,000,000 pages, or 10,000 with {@code -http})
+	 * @throws IOException
+	 *             if unable to start the server
+	 */
+	public static void main(String[] args) throws IOException {
+		boolean http = args.length > 0 && args[0].equals("-http");
+		int largest = args.length > (http ? 1 : 0) ? Integer.parseInt(args[http ? 1 : 0]) : http ? 10000 : 1000000;
+
+		System.out.printf("%12s %10s %10s %10s %14s%n", "Page Bytes", "Links", "Millis", "MB/s", "Alloc Bytes");
+
+		for (int bytes : new int[] { 10000, 100000, 1000000, 10000000, 50000000 }) {
+			SyntheticSite site = new SyntheticSite("http://synthetic.test/").fanout(Math.max(10, bytes / 1000))
+					.size(bytes);
+			URL url = site.getURL(0);
+			String html = site.getHTML(0);
+
+			LinkParser.listLinks(url, html);
+
+			long allocated = allocated();
+			long start = System.nanoTime();
+			int links = LinkParser.listLinks(url, html).size();
+			double millis = (System.nanoTime() - start) / 1e6;
+			allocated = allocated() - allocated;
+
+			System.out.printf("%12d %10d %10.1f %10.1f %14d%n", html.length(), links, millis,
+					html.length() / 1e3 / millis, allocated);
+		}
+
+		System.out.printf("%n%12s %10s %10s %12s %12s%n", "Site Pages", "Links", "Millis", "Pages/s", "Heap MB");
+
+		try (LocalHTTPServer server = new LocalHTTPServer()) {
+			for (int pages = 1000; pages <= largest; pages *= 10) {
+				String root = http ? server.getURL("/").toString() : "http://synthetic.test/";
+				SyntheticSite site = new SyntheticSite(root).pages(pages);
+				site.serve(server);
+				crawl(site, http);
+			}
+		}
+	}
+
+	/**
+	 * Crawls the entire site breadth-first starting at the first page and
+	 * prints a row of the site scaling table.
+	 *
+	 * @param site
+	 *            site to crawl
+	 * @param http
+	 *            whether to fetch pages from the server
+	 * @throws MalformedURLException
+	 *             if a url is invalid
+	 */
+	private static void crawl(SyntheticSite site, boolean http) throws MalformedURLException {
+		BitSet visited = new BitSet(site.getPages());
+		ArrayDeque<Integer> frontier = new ArrayDeque<>();
+		long links = 0;
+		int crawled = 0;
+
+		visited.set(0);
+		frontier.add(0);
+
+		long start = System.nanoTime();
+
+		while (!frontier.isEmpty()) {
+			int index = frontier.poll();
+			URL url = site.getURL(index);
+			String html = http ? LinkParser.fetchHTML(url) : site.getHTML(index);
+			crawled++;
+
+			if (html == null) {
+				continue;
+			}
+
+			for (URL link : LinkParser.listLinks(url, html)) {
+				int target = site.getIndex(link.getPath());
+				links++;
+
+				if (target >= 0 && !visited.get(target)) {
+					visited.set(target);
+					frontier.add(target);
+				}
+			}
+		}
+
+		double millis = (System.nanoTime() - start) / 1e6;
+		Runtime runtime = Runtime.getRuntime();
+		double heap = (runtime.totalMemory() - runtime.freeMemory()) / 1e6;
+
+		System.out.printf("%12d %10d %10.0f %12.0f %12.1f%n", crawled, links, millis, crawled / millis * 1000, heap);
+	}
+
+	/**
+	 * Returns the bytes allocated by the current thread so far, or 0 if not
+	 * supported by the JVM.
+	 *
+	 * @return bytes allocated
+	 */
+	private static long allocated() {
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+
+		return 0;
+	}
+}